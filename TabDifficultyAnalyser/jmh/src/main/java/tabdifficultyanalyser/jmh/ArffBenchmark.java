@@ -0,0 +1,140 @@
+/*
+ * A class that benchmarks writing the combined ARFF of a corpus, and reading
+ * it back in through Weka, through FastArffReader and as a FeatureStore.
+ * The files are written to a folder of their own, which is deleted after
+ * each trial.
+ */
+package tabdifficultyanalyser.jmh;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tabdifficultyanalyser.ArffUtility;
+import tabdifficultyanalyser.FastArffReader;
+import tabdifficultyanalyser.FeatureSchema;
+import tabdifficultyanalyser.FeatureStore;
+import weka.core.Instances;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ArffBenchmark {
+    private Path folder;
+    private Path arff;
+    private Path store;
+
+    /**
+     * Writes the combined ARFF and feature store of the corpus
+     * @param corpus
+     * @throws IOException
+     */
+    @Setup
+    public void write(Corpus corpus) throws IOException{
+        folder = Files.createTempDirectory("arffs");
+        writeArff(corpus);
+        arff = folder.resolve(FeatureSchema.COMBINED.getFileName());
+        store = folder.resolve(FeatureSchema.COMBINED.getRelation()
+                + FeatureStore.EXTENSION);
+        FeatureStore.write(FastArffReader.read(arff), store, false);
+    }
+
+    /**
+     * Deletes the folder the files were written to
+     * @throws IOException
+     */
+    @TearDown
+    public void delete() throws IOException{
+        List<Path> paths;
+        try(Stream<Path> walk = Files.walk(folder)){
+            paths = walk.sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        }
+        for(Path path : paths){
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Writes the combined ARFF of every Tab
+     * @param corpus
+     * @return the number of rows written
+     */
+    @Benchmark
+    public int writeArff(Corpus corpus){
+        try(ArffUtility arffUtility = new ArffUtility(folder.toString())){
+            arffUtility.prepareArff(FeatureSchema.COMBINED);
+            for(int i = 0; i < corpus.grades.length; i++){
+                arffUtility.toArff(FeatureSchema.COMBINED,
+                        corpus.features.get(i), corpus.grades[i]);
+            }
+        }
+        return corpus.grades.length;
+    }
+
+    /**
+     * Reads the combined ARFF through Weka
+     * @return the number of instances
+     * @throws IOException
+     */
+    @Benchmark
+    public int readWeka() throws IOException{
+        try(Reader reader = new BufferedReader(Files.newBufferedReader(arff))){
+            return new Instances(reader).numInstances();
+        }
+    }
+
+    /**
+     * Reads the combined ARFF through FastArffReader
+     * @return the number of rows
+     * @throws IOException
+     */
+    @Benchmark
+    public int readFastArffReader() throws IOException{
+        return FastArffReader.read(arff).getSize();
+    }
+
+    /**
+     * Reads the combined feature store
+     * @return the number of rows
+     * @throws IOException
+     */
+    @Benchmark
+    public int readFeatureStore() throws IOException{
+        return FeatureStore.read(store).getSize();
+    }
+
+    /**
+     * Reads the combined feature store as Instances
+     * @return the number of instances
+     * @throws IOException
+     */
+    @Benchmark
+    public int readFeatureStoreInstances() throws IOException{
+        return FeatureStore.readInstances(store).numInstances();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * A class that holds the corpus the benchmarks are run over.
+ * The tabs are read once for each trial, so that the benchmarks of the later
+ * stages of the pipeline only time their own stage. The corpus is the
+ * bundled pieces folder by default, and another can be given with
+ * -p rootFolder=<folder>, such as one made by CorpusGenerator.
+ */
+package tabdifficultyanalyser.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tabdifficultyanalyser.Tab;
+import tabdifficultyanalyser.TabDatabase;
+import tabdifficultyanalyser.TabEvents;
+import tabdifficultyanalyser.TabFeatureVector;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+@State(Scope.Benchmark)
+public class Corpus {
+    // Relative to the jmh folder the benchmarks are run from
+    @Param("../pieces")
+    public String rootFolder;
+
+    public TabDatabase db;
+    public List<TabEvents> events;
+    public List<TabFeatureVector> features;
+    public int[] grades;
+
+    /**
+     * Reads the tabs of the corpus and finds their features
+     * @throws Exception
+     */
+    @Setup
+    public void read() throws Exception{
+        db = new TabDatabase();
+        db.readInTabDatabase(rootFolder);
+        if(db.getSize() == 0){
+            throw new IllegalStateException("No tabs found in " + rootFolder);
+        }
+        events = new ArrayList<>(db.getSize());
+        features = new ArrayList<>(db.getSize());
+        grades = new int[db.getSize()];
+        for(int i = 0; i < db.getSize(); i++){
+            Tab tab = db.getTab(i);
+            events.add(tab.getEvents());
+            features.add(tab.getFeatureVector());
+            grades[i] = tab.getGrade();
+        }
+    }
+}
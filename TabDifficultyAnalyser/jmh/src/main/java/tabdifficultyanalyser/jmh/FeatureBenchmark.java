@@ -0,0 +1,72 @@
+/*
+ * A class that benchmarks finding the features of every Tab of a corpus from
+ * its parsed events, and turning those features into the rows of the
+ * combined feature set.
+ */
+package tabdifficultyanalyser.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import tabdifficultyanalyser.FeatureExtractor;
+import tabdifficultyanalyser.FeatureSchema;
+import tabdifficultyanalyser.TabEvents;
+import tabdifficultyanalyser.TabFeatureVector;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class FeatureBenchmark {
+
+    /**
+     * Finds the features of every Tab
+     * @param corpus
+     * @return the total number of notes
+     */
+    @Benchmark
+    public long extract(Corpus corpus){
+        long sum = 0;
+        for(TabEvents events : corpus.events){
+            sum += TabFeatureVector.extract(events).getTotalNoteCount();
+        }
+        return sum;
+    }
+
+    /**
+     * Fills a row of the combined feature set for every Tab
+     * @param corpus
+     * @return the sum of the last column
+     */
+    @Benchmark
+    public long combinedRows(Corpus corpus){
+        long sum = 0;
+        int[] row = new int[FeatureSchema.COMBINED.getWidth()];
+        for(TabFeatureVector features : corpus.features){
+            FeatureSchema.COMBINED.fill(features, row);
+            sum += row[row.length-1];
+        }
+        return sum;
+    }
+
+    /**
+     * Makes the Instances of the combined feature set for every Tab
+     * @param corpus
+     * @return the number of instances
+     */
+    @Benchmark
+    public int combinedInstances(Corpus corpus){
+        return new FeatureExtractor().toInstances(corpus.db,
+                FeatureSchema.COMBINED).numInstances();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * A class that benchmarks grading every Tab of a corpus with a GradingModel
+ * trained on the same corpus, as in the demonstration.
+ */
+package tabdifficultyanalyser.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tabdifficultyanalyser.GradingModel;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class GradingBenchmark {
+    private GradingModel model;
+
+    /**
+     * Trains the model on the corpus
+     * @param corpus
+     * @throws Exception
+     */
+    @Setup
+    public void train(Corpus corpus) throws Exception{
+        model = new GradingModel();
+        model.train(corpus.db);
+    }
+
+    /**
+     * Grades the features of every Tab
+     * @param corpus
+     * @return the sum of the grades
+     * @throws Exception
+     */
+    @Benchmark
+    public long grade(Corpus corpus) throws Exception{
+        long sum = 0;
+        for(int i = 0; i < corpus.grades.length; i++){
+            sum += model.grade(null, corpus.features.get(i)).getGrade();
+        }
+        return sum;
+    }
+
+    /**
+     * Trains a new model on the corpus
+     * @param corpus
+     * @return the model
+     * @throws Exception
+     */
+    @Benchmark
+    public GradingModel trainModel(Corpus corpus) throws Exception{
+        GradingModel trained = new GradingModel();
+        trained.train(corpus.db);
+        return trained;
+    }
+}
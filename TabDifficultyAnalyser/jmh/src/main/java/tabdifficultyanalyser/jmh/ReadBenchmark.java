@@ -0,0 +1,55 @@
+/*
+ * A class that benchmarks reading and parsing the tab files of a corpus into
+ * a TabDatabase, through readers and through memory-mapping the files, and
+ * on one thread and on the default number.
+ */
+package tabdifficultyanalyser.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tabdifficultyanalyser.TabDatabase;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ReadBenchmark {
+    @Param({"false", "true"})
+    public boolean memoryMapped;
+
+    // 0 for the default parallelism
+    @Param({"1", "0"})
+    public int parallelism;
+
+    /**
+     * Reads every tab file of the corpus
+     * @param corpus
+     * @return the number of tabs read
+     * @throws Exception
+     */
+    @Benchmark
+    public int readInTabDatabase(Corpus corpus) throws Exception{
+        TabDatabase db = new TabDatabase();
+        db.setMemoryMapped(memoryMapped);
+        if(parallelism > 0){
+            db.setParallelism(parallelism);
+        }
+        db.readInTabDatabase(corpus.rootFolder);
+        return db.getSize();
+    }
+}
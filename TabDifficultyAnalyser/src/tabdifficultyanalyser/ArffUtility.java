@@ -1,569 +1,249 @@
 /*
  * A class that produces and writes data in ARFF format.
+ * Each ARFF is described by a FeatureSchema. It is opened once when it is
+ * prepared and kept open while its rows are written, until it is closed.
+ * Rows can be written in full or in the sparse ARFF format, or to a feature
+ * store a block at a time.
  */
 package tabdifficultyanalyser;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  *
  * @author Joshua Foster
  */
-public class ArffUtility {
-    private static final String[] CHROMATIC_SCALE = {"a","a#","b","c",
-                                                    "c#","d","d#","e",
-                                                    "f","f#","g","g#"};
-    
-    /**
-     * A method that creates and prepares the ARFF for noteCount.
-     */
-    public void prepareNoteCountArff(){
-        String fileName = "noteCount.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName);
-            BufferedWriter bw = new BufferedWriter(fw);
-            bw.write("@relation noteCount");
-            bw.newLine();
-            bw.newLine();
-            for (String s : CHROMATIC_SCALE) {
-                bw.write("@attribute " + s + " numeric");
-                bw.newLine();
-            }
-            
-            bw.write("@attribute grade {1,2,3,4,5,6,7,8}");
-            bw.newLine();
-            bw.newLine();
-            bw.write("@data");
-            bw.newLine();
-            
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
-        }
-    }
-    
-    /**
-     * A method that takes a Tab files noteCount and grade, and then
-     * writes the data to the ARFF.
-     * @param noteCount
-     * @param grade 
-     */
-    public void noteCountToArff(int[] noteCount, int grade){
-        String fileName = "noteCount.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName, true);
-            BufferedWriter bw = new BufferedWriter(fw);
-            for(int i = 0; i < noteCount.length; i++){
-                bw.write(noteCount[i]+",");
-            }
-            bw.write(Integer.toString(grade));
-            bw.newLine();
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
-        }
-    } 
-    
-    /**
-     * A method that prepares the ARFF for the highest fret used in a
-     * Tab.
-     */
-    public void prepareHighestFretArff(){
-        String fileName = "highestFret.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName);
-            BufferedWriter bw = new BufferedWriter(fw);
-            bw.write("@relation highestFret");
-            bw.newLine();
-            bw.newLine();
-            bw.write("@attribute highestFret numeric");
-            bw.newLine();
-            bw.write("@attribute grade {1,2,3,4,5,6,7,8}");
-            bw.newLine();
-            bw.newLine();
-            bw.write("@data");
-            bw.newLine();
-            
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
-        }
-    }   
-        
+public class ArffUtility implements Closeable {
+    // The folder the ARFFs are written to, or null for the working directory
+    private final String directory;
+    // The ARFFs that are currently open, by file name
+    private final Map<String, ArffWriter> writers = new HashMap<>();
+    // The rows being written, by file name, so they are only allocated once
+    private final Map<String, int[]> rows = new HashMap<>();
+    // The number of rows written to each ARFF, by file name
+    private final Map<String, Metrics.Counter> counters = new HashMap<>();
+    // Whether rows are written in the sparse ARFF format
+    private boolean sparse;
+    // The row being written in the sparse format
+    private final SparseVector sparseRow = new SparseVector();
+    // The feature stores that are currently open, by file name
+    private final Map<String, FeatureStore.Writer> stores = new HashMap<>();
+    // Whether feature stores are written instead of ARFFs
+    private boolean featureStore;
+    // Whether the columns of the feature stores are deflated
+    private boolean deflate;
+
     /**
-     * A method that writes the highestFret data of a Tab to the ARFF
-     * @param highestFret
-     * @param grade 
+     * Default constructor for an ArffUtility, which writes the ARFFs to the
+     * working directory
      */
-    public void highestFretToArff(int highestFret, int grade){
-        String fileName = "highestFret.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName, true);
-            BufferedWriter bw = new BufferedWriter(fw);
-            bw.write(highestFret+",");
-            bw.write(Integer.toString(grade));
-            bw.newLine();
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
-        }
+    public ArffUtility(){
+        this(null);
     }
-    
+
     /**
-     * A method for producing an ARFF that is a combination of
-     * noteCount and highestFret
+     * Constructor for an ArffUtility that writes the ARFFs to a folder
+     * @param directory
      */
-    public void prepareNoteCountHighestFretArff(){
-        String fileName = "noteCountHighestFret.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName);
-            BufferedWriter bw = new BufferedWriter(fw);
-            bw.write("@relation noteCountHighestFret");
-            bw.newLine();
-            bw.newLine();
-            
-            for (String s : CHROMATIC_SCALE) {
-                bw.write("@attribute " + s + " numeric");
-                bw.newLine();
-            }
-            bw.write("@attribute highestFret numeric");
-            bw.newLine();
-            bw.write("@attribute grade {1,2,3,4,5,6,7,8}");
-            bw.newLine();
-            bw.newLine();
-            bw.write("@data");
-            bw.newLine();
-            
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
-        }
+    public ArffUtility(String directory){
+        this.directory = directory;
     }
-    
+
     /**
-     * A method that writes both the noteCount and highestFret in one ARFF
-     * @param noteCount
-     * @param highestFret
-     * @param grade 
+     * Sets whether rows are written in the sparse ARFF format, with only the
+     * columns that are not zero, which makes the ARFFs of the fret count
+     * matrices several times smaller. The header is the same either way.
+     * @param sparse
      */
-    public void noteCountHighestFretToArff(int[] noteCount, int highestFret, int grade){
-        String fileName = "noteCountHighestFret.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName, true);
-            BufferedWriter bw = new BufferedWriter(fw);
-            for(int i = 0; i < noteCount.length; i++){
-                bw.write(noteCount[i]+",");
-            }
-            bw.write(highestFret+",");
-            bw.write(new Integer(grade).toString());
-            bw.newLine();
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
-        }
-        
+    public void setSparse(boolean sparse){
+        this.sparse = sparse;
     }
-    
+
     /**
-     * A method that takes two parameters, m and n and creates an ARFF for
-     * fretCount.
-     * @param m - the number of rows in fretCount
-     * @param n - the number of columns in fretCount
+     * Sets whether a feature store is written for each feature set instead
+     * of an ARFF, next to where the ARFF would be. Only the block of rows
+     * being written is kept in memory for each feature set.
+     * @param featureStore
+     * @param deflate whether to compress the blocks
      */
-    public void prepareFretCountArff(int m, int n){
-        String fileName = "fretCount.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName);
-            BufferedWriter bw = new BufferedWriter(fw);
-            bw.write("@relation fretCount");
-            bw.newLine();
-            bw.newLine();
-            for(int i = 1; i <= m; i++){
-                for(int j = 0; j < n; j++){
-                    bw.write("@attribute [" + i + "][" + j + "] numeric");
-                    bw.newLine();
-                }
-            }
-            bw.write("@attribute grade {1,2,3,4,5,6,7,8}");
-            bw.newLine();
-            bw.newLine();
-            bw.write("@data");
-            bw.newLine();
-            
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
-        }
+    public void setFeatureStore(boolean featureStore, boolean deflate){
+        this.featureStore = featureStore;
+        this.deflate = deflate;
     }
-    
+
     /**
-     * A method that writes the fretCount data to an ARFF
-     * @param fretCount
-     * @param grade 
+     * Returns the path of the ARFF, or feature store, for a feature set
+     * @param schema the feature set
+     * @return path
      */
-    public void fretCountToArff(int[][] fretCount, int grade){
-        String fileName = "fretCount.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName, true);
-            BufferedWriter bw = new BufferedWriter(fw);
-            for(int i = 0; i < fretCount.length; i++){
-                for(int j = 0; j < fretCount[0].length; j++){
-                    bw.write(fretCount[i][j]+",");
-                }
-            }
-            bw.write(Integer.toString(grade));
-            bw.newLine();
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
+    private String pathOf(FeatureSchema schema){
+        String fileName = schema.getFileName();
+        if(featureStore){
+            fileName = schema.getRelation() + FeatureStore.EXTENSION;
         }
+        return directory == null ? fileName
+                : new File(directory, fileName).getPath();
     }
-    
+
     /**
-     * A method that creates an ARFF for chordCount
+     * Returns the counter of the rows written for a feature set
+     * @param schema the feature set
+     * @return counter
      */
-    public void prepareChordCountArff(){
-        String fileName = "chordCount.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName);
-            BufferedWriter bw = new BufferedWriter(fw);
-            bw.write("@relation chordCount");
-            bw.newLine();
-            bw.newLine();
-            bw.write("@attribute chordCount numeric");
-            bw.newLine();
-            bw.write("@attribute grade {1,2,3,4,5,6,7,8}");
-            bw.newLine();
-            bw.newLine();
-            bw.write("@data");
-            bw.newLine();
-            
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
-        }
+    private static Metrics.Counter rowCounter(FeatureSchema schema){
+        return Metrics.counter("arff.rows." + schema.getRelation());
     }
-    
+
     /**
-     * A method that writes the chordCount data to an ARFF
-     * @param chordCount
-     * @param grade 
+     * Creates (or empties) the ARFF for a feature set, writes its header and
+     * keeps it open for writing rows
+     * @param schema the feature set
      */
-    public void chordCountToArff(int chordCount, int grade){
-        String fileName = "chordCount.arff";
-        
+    public void prepareArff(FeatureSchema schema){
+        String fileName = pathOf(schema);
+        closeArff(fileName);
+
         try{
-            FileWriter fw = new FileWriter(fileName, true);
-            BufferedWriter bw = new BufferedWriter(fw);
-            bw.write(chordCount + ",");
-            bw.write(Integer.toString(grade));
-            bw.newLine();
-            bw.close();
+            if(featureStore){
+                stores.put(fileName, FeatureStore.create(Paths.get(fileName),
+                        schema.getRelation(), schema.getAttributes(),
+                        deflate));
+                rows.put(fileName, new int[schema.getWidth()]);
+                counters.put(fileName, rowCounter(schema));
+                return;
+            }
+            ArffWriter writer = new ArffWriter(fileName);
+            writers.put(fileName, writer);
+            rows.put(fileName, new int[schema.getWidth()]);
+            counters.put(fileName, rowCounter(schema));
+            writer.writeRelation(schema.getRelation());
+            for(String attribute : schema.getAttributes()){
+                writer.writeAttribute(attribute, "numeric");
+            }
+            writer.writeData();
         }
         catch(IOException e){
             System.out.println(e);
         }
     }
-    
+
     /**
-     * A method that prepares the totalNoteCount ARFF
+     * Writes the features of a Tab and its grade as a row of the ARFF for a
+     * feature set. If the ARFF has not been prepared the row is added to the
+     * end of the file.
+     * @param schema the feature set
+     * @param features the features of a Tab
+     * @param grade
      */
-    public void prepareTotalNoteCountArff(){
-        String fileName = "totalNoteCount.arff";
-        
+    public void toArff(FeatureSchema schema, TabFeatureVector features,
+            int grade){
+        String fileName = pathOf(schema);
+
         try{
-            FileWriter fw = new FileWriter(fileName);
-            BufferedWriter bw = new BufferedWriter(fw);
-            bw.write("@relation totalNoteCount");
-            bw.newLine();
-            bw.newLine();
-            bw.write("@attribute totalNoteCount numeric");
-            bw.newLine();
-            bw.write("@attribute grade {1,2,3,4,5,6,7,8}");
-            bw.newLine();
-            bw.newLine();
-            bw.write("@data");
-            bw.newLine();
-            
-            bw.close();
+            if(featureStore){
+                toFeatureStore(fileName, schema, features, grade);
+                return;
+            }
+            ArffWriter writer = writers.get(fileName);
+            if(writer == null){
+                writer = new ArffWriter(fileName, true);
+                writers.put(fileName, writer);
+                rows.put(fileName, new int[schema.getWidth()]);
+                counters.put(fileName, rowCounter(schema));
+            }
+            if(sparse){
+                schema.fillSparse(features, sparseRow);
+                writer.writeSparse(sparseRow, schema.getWidth(), grade);
+            }
+            else{
+                int[] row = rows.get(fileName);
+                schema.fill(features, row);
+                writer.write(row);
+                writer.endRow(grade);
+            }
+            counters.get(fileName).increment();
         }
         catch(IOException e){
             System.out.println(e);
         }
     }
-    
+
     /**
-     * A method that writes the totalNoteCount data to an ARFF
-     * @param totalNoteCount
-     * @param grade 
-     */
-    public void totalNoteCountToArff(int totalNoteCount, int grade){
-        String fileName = "totalNoteCount.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName, true);
-            BufferedWriter bw = new BufferedWriter(fw);
-            
-            bw.write(totalNoteCount + ",");
-            bw.write(new Integer(grade).toString());
-            bw.newLine();
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
-        }
+     * Adds the features of a Tab and its grade to the feature store for a
+     * feature set. If it has not been prepared the row is added to the end
+     * of the rows already saved, without reading them.
+     * @param fileName the path of the feature store
+     * @param schema the feature set
+     * @param features the features of a Tab
+     * @param grade
+     * @throws IOException
+     */
+    private void toFeatureStore(String fileName, FeatureSchema schema,
+            TabFeatureVector features, int grade) throws IOException{
+        FeatureStore.Writer store = stores.get(fileName);
+        if(store == null){
+            store = FeatureStore.append(Paths.get(fileName),
+                    schema.getRelation(), schema.getAttributes(), deflate);
+            stores.put(fileName, store);
+            rows.put(fileName, new int[schema.getWidth()]);
+            counters.put(fileName, rowCounter(schema));
+        }
+        int[] row = rows.get(fileName);
+        schema.fill(features, row);
+        store.add(row, grade);
+        counters.get(fileName).increment();
     }
-    
+
     /**
-     * A method that creates the rhythmFlagCount ARFF
+     * Flushes and closes an ARFF or feature store, if it is open
+     * @param fileName the path of the ARFF or feature store
      */
-    public void prepareRhythmFlagCountArff(){
-        String fileName = "rhythmFlagCount.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName);
-            BufferedWriter bw = new BufferedWriter(fw);
-            bw.write("@relation rhythmFlagCount");
-            bw.newLine();
-            bw.newLine();
-            bw.write("@attribute 2W numeric");
-            bw.newLine();
-            bw.write("@attribute W numeric");
-            bw.newLine();
-            bw.write("@attribute 1/2 numeric");
-            bw.newLine();
-            bw.write("@attribute 1/4 numeric");
-            bw.newLine();
-            bw.write("@attribute 1/8 numeric");
-            bw.newLine();
-            bw.write("@attribute 1/16 numeric");
-            bw.newLine();
-            bw.write("@attribute 1/32 numeric");
-            bw.newLine();
-            bw.write("@attribute 1/64 numeric");
-            bw.newLine();
-            bw.write("@attribute 1/128 numeric");
-            bw.newLine();
-            bw.write("@attribute triplet numeric");
-            bw.newLine();
-            bw.write("@attribute grade {1,2,3,4,5,6,7,8}");
-            bw.newLine();
-            bw.newLine();
-            bw.write("@data");
-            bw.newLine();
-            
-            bw.close();
+    public void closeArff(String fileName){
+        Closeable writer = writers.remove(fileName);
+        if(writer == null){
+            writer = stores.remove(fileName);
         }
-        catch(IOException e){
-            System.out.println(e);
-        }
-    }
-    
-    /**
-     * A method that writes the rhythmFlagCount data to an ARFF
-     * @param rhythmFlagCount
-     * @param grade 
-     */
-    public void rhythmFlagCountToArff(int[] rhythmFlagCount, int grade){
-        String fileName = "rhythmFlagCount.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName, true);
-            BufferedWriter bw = new BufferedWriter(fw);
-            for(int i = 0; i < rhythmFlagCount.length; i++){
-                bw.write(rhythmFlagCount[i]+",");
+        rows.remove(fileName);
+        counters.remove(fileName);
+        if(writer != null){
+            try{
+                writer.close();
             }
-            bw.write(Integer.toString(grade));
-            bw.newLine();
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
-        }
-    } 
-    
-    /**
-     * A method that takes two parameters, m and n and creates an ARFF for
-     * fretCount.
-     * @param m - the number of rows in fretCount
-     * @param n - the number of columns in fretCount
-     */
-    public void prepareAdvancedFretCountArff(int m, int n){
-        String fileName = "advancedFretCount.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName);
-            BufferedWriter bw = new BufferedWriter(fw);
-            bw.write("@relation advancedFretCount");
-            bw.newLine();
-            bw.newLine();
-            for(int i = 1; i <= m; i++){
-                for(int j = 0; j < n; j++){
-                    bw.write("@attribute [" + i + "][" + j + "] numeric");
-                    bw.newLine();
-                }
+            catch(IOException e){
+                System.out.println(e);
             }
-            bw.write("@attribute grade {1,2,3,4,5,6,7,8}");
-            bw.newLine();
-            bw.newLine();
-            bw.write("@data");
-            bw.newLine();
-            
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
         }
     }
-    
+
     /**
-     * A method that writes the fretCount data to an ARFF
-     * @param advancedFretCount
-     * @param grade 
+     * Flushes and closes every open ARFF and feature store
      */
-    public void advancedFretCountToArff(int[][] advancedFretCount, int grade){
-        String fileName = "advancedFretCount.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName, true);
-            BufferedWriter bw = new BufferedWriter(fw);
-            for(int i = 0; i < advancedFretCount.length; i++){
-                for(int j = 0; j < advancedFretCount[0].length; j++){
-                    bw.write(advancedFretCount[i][j]+",");
-                }
+    @Override
+    public void close(){
+        for(ArffWriter writer : writers.values()){
+            try{
+                writer.close();
             }
-            bw.write(Integer.toString(grade));
-            bw.newLine();
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
-        }
-    }
-    
-    /**
-     * Creates an arff file for numberOfBars
-     */
-    public void prepareNumberOfBarsArff(){
-        String fileName = "numberOfBars.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName);
-            BufferedWriter bw = new BufferedWriter(fw);
-            bw.write("@relation numberOfBars");
-            bw.newLine();
-            bw.newLine();bw.write("@attribute bars numeric");
-            bw.newLine();
-            bw.write("@attribute grade {1,2,3,4,5,6,7,8}");
-            bw.newLine();
-            bw.newLine();
-            bw.write("@data");
-            bw.newLine();
-            
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
-        }
-    }
-    
-    /**
-     * Writes the data from numberOfBars to numberOfBars.arff
-     * @param numberOfBars
-     * @param grade 
-     */
-    public void numberOfBarsToArff(int numberOfBars, int grade){
-        String fileName = "numberOfBars.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName, true);
-            BufferedWriter bw = new BufferedWriter(fw);
-            
-            bw.write(numberOfBars + ",");
-            bw.write(new Integer(grade).toString());
-            bw.newLine();
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
-        }
-    }
-    
-    
-    public void prepareCombinedArff(int m, int n){
-        String fileName = "combined.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName);
-            BufferedWriter bw = new BufferedWriter(fw);
-            bw.write("@relation combined");
-            bw.newLine();
-            bw.newLine();
-            for(int i = 1; i <= m; i++){
-                for(int j = 0; j < n; j++){
-                    bw.write("@attribute [" + i + "][" + j + "] numeric");
-                    bw.newLine();
-                }
+            catch(IOException e){
+                System.out.println(e);
             }
-            
-            bw.newLine();
-            bw.write("@attribute highestFret numeric");
-            bw.newLine();
-            bw.write("@attribute totalNoteCount numeric");
-            bw.newLine();
-            bw.write("@attribute grade {1,2,3,4,5,6,7,8}");
-            bw.newLine();
-            bw.newLine();
-            bw.write("@data");
-            bw.newLine();
-            
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
         }
-    }
-    
-    public void combinedToArff(int[][] fretCount, int highestFret, 
-            int totalNoteCount, int grade){
-        String fileName = "combined.arff";
-        
-        try{
-            FileWriter fw = new FileWriter(fileName, true);
-            BufferedWriter bw = new BufferedWriter(fw);
-            for(int i = 0; i < fretCount.length; i++){
-                for(int j = 0; j < fretCount[0].length; j++){
-                    bw.write(fretCount[i][j] + ",");
-                }
+        writers.clear();
+        for(FeatureStore.Writer store : stores.values()){
+            try{
+                store.close();
+            }
+            catch(IOException e){
+                System.out.println(e);
             }
-            bw.write(highestFret + ",");
-            bw.write(totalNoteCount + ",");
-            bw.write(Integer.toString(grade));
-            bw.newLine();
-            bw.close();
-        }
-        catch(IOException e){
-            System.out.println(e);
         }
+        stores.clear();
+        rows.clear();
+        counters.clear();
     }
 }
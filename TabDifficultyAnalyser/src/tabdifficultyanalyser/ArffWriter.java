@@ -0,0 +1,181 @@
+/*
+ * A class that writes a single ARFF file.
+ * The file is opened once and every row is streamed through a large buffer,
+ * rather than the file being opened and closed again for each row.
+ */
+package tabdifficultyanalyser;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class ArffWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private final String fileName;
+    private final BufferedWriter bw;
+
+    /**
+     * Constructor that creates (or empties) an ARFF file
+     * @param fileName
+     * @throws IOException
+     */
+    public ArffWriter(String fileName) throws IOException{
+        this(fileName, false);
+    }
+
+    /**
+     * Constructor that opens an ARFF file
+     * @param fileName
+     * @param append true to add rows to the end of an existing file
+     * @throws IOException
+     */
+    public ArffWriter(String fileName, boolean append) throws IOException{
+        this.fileName = fileName;
+        bw = new BufferedWriter(new FileWriter(fileName, append), BUFFER_SIZE);
+    }
+
+    /**
+     * Returns the name of the file being written
+     * @return fileName
+     */
+    public String getFileName(){
+        return fileName;
+    }
+
+    /**
+     * Writes the @relation line followed by a blank line
+     * @param relation
+     * @throws IOException
+     */
+    public void writeRelation(String relation) throws IOException{
+        bw.write("@relation ");
+        bw.write(relation);
+        bw.newLine();
+        bw.newLine();
+    }
+
+    /**
+     * Writes an @attribute line
+     * @param name
+     * @param type for example "numeric"
+     * @throws IOException
+     */
+    public void writeAttribute(String name, String type) throws IOException{
+        bw.write("@attribute ");
+        bw.write(name);
+        bw.write(' ');
+        bw.write(type);
+        bw.newLine();
+    }
+
+    /**
+     * Writes the grade attribute followed by the @data line, after which rows
+     * can be written
+     * @throws IOException
+     */
+    public void writeData() throws IOException{
+        writeAttribute("grade", "{1,2,3,4,5,6,7,8}");
+        bw.newLine();
+        bw.write("@data");
+        bw.newLine();
+    }
+
+    /**
+     * Writes an empty line
+     * @throws IOException
+     */
+    public void newLine() throws IOException{
+        bw.newLine();
+    }
+
+    /**
+     * Writes a single value of a row
+     * @param value
+     * @throws IOException
+     */
+    public void write(int value) throws IOException{
+        bw.write(Integer.toString(value));
+        bw.write(',');
+    }
+
+    /**
+     * Writes each value of an array as part of a row
+     * @param values
+     * @throws IOException
+     */
+    public void write(int[] values) throws IOException{
+        for(int value : values){
+            write(value);
+        }
+    }
+
+    /**
+     * Writes each value of a matrix, row by row, as part of a row
+     * @param values
+     * @throws IOException
+     */
+    public void write(int[][] values) throws IOException{
+        for(int[] row : values){
+            write(row);
+        }
+    }
+
+    /**
+     * Writes a whole row in the sparse ARFF format, as the position and value
+     * of each column that is not zero followed by the grade:
+     * {0 3,17 1,160 5}
+     * @param row the columns of the row that are not zero
+     * @param width the number of columns, which is the position of the grade
+     * @param grade
+     * @throws IOException
+     */
+    public void writeSparse(SparseVector row, int width, int grade)
+            throws IOException{
+        bw.write('{');
+        for(int i = 0; i < row.getCount(); i++){
+            bw.write(Integer.toString(row.getIndex(i)));
+            bw.write(' ');
+            bw.write(Integer.toString(row.getValue(i)));
+            bw.write(',');
+        }
+        // The grade is always written, as a missing nominal value would be
+        // read as the first grade
+        bw.write(Integer.toString(width));
+        bw.write(' ');
+        bw.write(Integer.toString(grade));
+        bw.write('}');
+        bw.newLine();
+    }
+
+    /**
+     * Writes the grade, which is the last value of a row, and ends the row
+     * @param grade
+     * @throws IOException
+     */
+    public void endRow(int grade) throws IOException{
+        bw.write(Integer.toString(grade));
+        bw.newLine();
+    }
+
+    /**
+     * Writes out anything still in the buffer
+     * @throws IOException
+     */
+    public void flush() throws IOException{
+        bw.flush();
+    }
+
+    /**
+     * Flushes and closes the file
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException{
+        bw.close();
+    }
+}
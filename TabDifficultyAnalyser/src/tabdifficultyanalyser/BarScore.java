@@ -0,0 +1,163 @@
+/*
+ * A class that holds the features and grades a BarScorer gives a bar as it
+ * is read: those of the bar on its own, of the window of bars ending with
+ * it, and of the piece up to and including it.
+ */
+package tabdifficultyanalyser;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class BarScore {
+    private final int bar;
+    private final int firstLine;
+    private final int lastLine;
+    private final int windowBars;
+    private final TabFeatureVector barFeatures;
+    private final TabFeatureVector windowFeatures;
+    private final Grading barGrading;
+    private final Grading windowGrading;
+    private final Grading pieceGrading;
+
+    /**
+     * Constructor for a BarScore
+     * @param bar the position of the bar, starting at 0
+     * @param firstLine the line the bar starts on, starting at 0
+     * @param lastLine the bar line that ends it
+     * @param windowBars the number of bars in the window
+     * @param barFeatures the features of the bar
+     * @param windowFeatures the features of the window
+     * @param barGrading the grading of the bar, or null without a model
+     * @param windowGrading the grading of the window, or null without a model
+     * @param pieceGrading the grading of the piece so far, or null without a
+     * model
+     */
+    BarScore(int bar, int firstLine, int lastLine, int windowBars,
+            TabFeatureVector barFeatures, TabFeatureVector windowFeatures,
+            Grading barGrading, Grading windowGrading, Grading pieceGrading){
+        this.bar = bar;
+        this.firstLine = firstLine;
+        this.lastLine = lastLine;
+        this.windowBars = windowBars;
+        this.barFeatures = barFeatures;
+        this.windowFeatures = windowFeatures;
+        this.barGrading = barGrading;
+        this.windowGrading = windowGrading;
+        this.pieceGrading = pieceGrading;
+    }
+
+    /**
+     * Returns the position of the bar in the piece
+     * @return bar, starting at 0
+     */
+    public int getBar(){
+        return bar;
+    }
+
+    /**
+     * Returns the line the bar starts on, counting every line given to the
+     * BarScorer
+     * @return line, starting at 0
+     */
+    public int getFirstLine(){
+        return firstLine;
+    }
+
+    /**
+     * Returns the bar line that ends the bar
+     * @return line, starting at 0
+     */
+    public int getLastLine(){
+        return lastLine;
+    }
+
+    /**
+     * Returns the number of bars in the window, which is fewer than the
+     * size of the window at the start of a piece
+     * @return windowBars
+     */
+    public int getWindowBars(){
+        return windowBars;
+    }
+
+    /**
+     * Returns the features of the bar, as if it were a piece of one bar
+     * @return barFeatures
+     */
+    public TabFeatureVector getBarFeatures(){
+        return barFeatures;
+    }
+
+    /**
+     * Returns the features of the window, as if it were a piece of its bars
+     * @return windowFeatures
+     */
+    public TabFeatureVector getWindowFeatures(){
+        return windowFeatures;
+    }
+
+    /**
+     * Returns the grading of the bar
+     * @return grading, or null if there is no model
+     */
+    public Grading getBarGrading(){
+        return barGrading;
+    }
+
+    /**
+     * Returns the grading of the window
+     * @return grading, or null if there is no model
+     */
+    public Grading getWindowGrading(){
+        return windowGrading;
+    }
+
+    /**
+     * Returns the grading of the piece up to the end of the bar
+     * @return grading, or null if there is no model
+     */
+    public Grading getPieceGrading(){
+        return pieceGrading;
+    }
+
+    /**
+     * Returns the expected grade of the bar
+     * @return score, or NaN if there is no model
+     */
+    public double getBarScore(){
+        return score(barGrading);
+    }
+
+    /**
+     * Returns the expected grade of the window
+     * @return score, or NaN if there is no model
+     */
+    public double getWindowScore(){
+        return score(windowGrading);
+    }
+
+    /**
+     * Returns the expected grade of the piece up to the end of the bar
+     * @return score, or NaN if there is no model
+     */
+    public double getPieceScore(){
+        return score(pieceGrading);
+    }
+
+    /**
+     * Returns the expected grade of a grading
+     * @param grading
+     * @return score, or NaN if there is no grading
+     */
+    private static double score(Grading grading){
+        return grading == null ? Double.NaN : grading.getExpectedGrade();
+    }
+
+    @Override
+    public String toString(){
+        return String.format("%d\t%d-%d\t%d\t%.2f\t%.2f\t%.2f", bar, firstLine,
+                lastLine, barFeatures.getTotalNoteCount(), getBarScore(),
+                getWindowScore(), getPieceScore());
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * A class that scores a Tab a bar at a time as its lines are read, such as
+ * while it is being typed.
+ * The lines of the current bar are parsed into a reused TabEvents.Builder,
+ * and when a bar line ends the bar its features are found and passed on as a
+ * BarScore together with those of the window of the last few bars. A window
+ * is kept as the features of its bars in a ring, and the piece so far as
+ * running totals, so the memory used does not grow with the length of the
+ * piece. With a GradingModel, the bar, the window and the piece so far are
+ * each graded as if they were a whole piece. The model is trained on counts
+ * over whole pieces, so a bar or window is graded as a piece of
+ * referenceBars bars played the same way, with its counts scaled to match.
+ * The piece so far is scaled up in the same way until it has referenceBars
+ * bars, so the start of a piece is not graded easy for being short.
+ *
+ * Once every line has been read, the features of the piece are the same as
+ * those TabFeatureVector.extract() finds for the whole Tab.
+ */
+package tabdifficultyanalyser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Consumer;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class BarScorer {
+    /**
+     * The number of bars in a window, if it is not given
+     */
+    public static final int DEFAULT_WINDOW = 4;
+    /**
+     * The number of bars a bar or window is scaled to when it is graded,
+     * about the length of the graded pieces in the corpus
+     */
+    public static final int DEFAULT_REFERENCE_BARS = 30;
+
+    private static final Metrics.Timer BAR_TIMER = Metrics.timer("bar.score");
+
+    // The model the bars are graded with, or null to only find features
+    private final GradingModel model;
+    private final Tuning tuning;
+    private final Consumer<BarScore> consumer;
+    // The lines of the current bar
+    private final TabEvents.Builder bar = new TabEvents.Builder();
+    // The features of the last bars, by bar position modulo the window size
+    private final TabFeatureVector[] window;
+    // The number of bars a bar, window or short piece is scaled to when it
+    // is graded
+    private int referenceBars = DEFAULT_REFERENCE_BARS;
+    // The number of bars scored
+    private int barCount;
+    // The number of lines read, and the line the current bar started on
+    private int lineCount;
+    private int firstLine;
+    // The kinds of the last two lines that were not empty, or -1
+    private byte lastKind = -1;
+    private byte secondLastKind = -1;
+
+    // The features of the piece so far
+    private final int[] noteCount = new int[12];
+    private final int[][] fretCount =
+            new int[TabFeatureVector.COURSES][TabFeatureVector.FRETS];
+    private final int[] rhythmFlagCount = new int[10];
+    private int[][] densestBar =
+            new int[TabFeatureVector.COURSES][TabFeatureVector.FRETS];
+    private int densestNoteCount;
+    private int highestFret;
+    private int chordCount;
+    private int totalNoteCount;
+    private int pieceBarCount;
+
+    /**
+     * Constructor for a BarScorer that only finds the features of each bar,
+     * with a window of DEFAULT_WINDOW bars and the renaissance tuning
+     * @param consumer receives the score of each bar as it is read
+     */
+    public BarScorer(Consumer<BarScore> consumer){
+        this(null, DEFAULT_WINDOW, consumer);
+    }
+
+    /**
+     * Constructor for a BarScorer
+     * @param model the model to grade the bars with, whose tuning is used to
+     * find their features, or null to only find the features
+     * @param windowSize the number of bars in a window
+     * @param consumer receives the score of each bar as it is read
+     */
+    public BarScorer(GradingModel model, int windowSize,
+            Consumer<BarScore> consumer){
+        if(windowSize < 1){
+            throw new IllegalArgumentException("A window needs at least 1 bar");
+        }
+        this.model = model;
+        this.tuning = model == null ? Tuning.RENAISSANCE : model.getTuning();
+        this.window = new TabFeatureVector[windowSize];
+        this.consumer = consumer;
+    }
+
+    /**
+     * Sets the number of bars a bar or window, or the piece so far while it
+     * is shorter, is scaled to when it is graded. A number of 0 grades them
+     * as they are.
+     * @param referenceBars
+     */
+    public void setReferenceBars(int referenceBars){
+        this.referenceBars = referenceBars;
+    }
+
+    /**
+     * Reads the next line of the Tab. A bar line scores the bar it ends.
+     * @param line
+     */
+    public void addLine(CharSequence line){
+        int number = lineCount++;
+        if(line.length() == 0){
+            return;
+        }
+        byte kind = TabEvents.lineKind(line);
+        // Count the bar lines as TabFeatureVector.extract() does, once the
+        // two lines after each one are known
+        if(secondLastKind == TabEvents.BAR && lastKind != TabEvents.BAR
+                && kind != TabEvents.END){
+            pieceBarCount++;
+        }
+        secondLastKind = lastKind;
+        lastKind = kind;
+
+        if(kind == TabEvents.BAR || kind == TabEvents.BAR_OTHER){
+            endBar(number);
+        }
+        else{
+            bar.addLine(line);
+        }
+    }
+
+    /**
+     * Ends the current bar, adding it to the piece and scoring it if it has
+     * any rhythm events
+     * @param barLine the line that ends the bar
+     */
+    private void endBar(int barLine){
+        long start = BAR_TIMER.start();
+        TabEvents events = bar.build();
+        bar.clear();
+        TabFeatureVector features = TabFeatureVector.extract(events, tuning);
+        addToPiece(features);
+        // As BarSegmenter, keep the fret count of the bar with the most notes
+        if(features.getTotalNoteCount() > densestNoteCount){
+            densestBar = features.fretCountArray();
+            densestNoteCount = features.getTotalNoteCount();
+        }
+
+        int first = firstLine;
+        firstLine = barLine + 1;
+        if(events.getEventCount() == 0){
+            BAR_TIMER.stop(start);
+            return;
+        }
+        int position = barCount++;
+        window[position % window.length] = features;
+        int windowBars = Math.min(barCount, window.length);
+        TabFeatureVector barFeatures = combine(position, 1);
+        TabFeatureVector windowFeatures = combine(position, windowBars);
+
+        BarScore score;
+        if(model == null){
+            score = new BarScore(position, first, barLine, windowBars,
+                    barFeatures, windowFeatures, null, null, null);
+        }
+        else{
+            try{
+                score = new BarScore(position, first, barLine, windowBars,
+                        barFeatures, windowFeatures,
+                        model.grade("bar " + position, scale(barFeatures, 1)),
+                        model.grade("bars " + (position - windowBars + 1)
+                                + "-" + position,
+                                scale(windowFeatures, windowBars)),
+                        model.grade("piece", barCount < referenceBars
+                                ? scale(getFeatures(), barCount)
+                                : getFeatures()));
+            }
+            catch(Exception e){
+                throw new IllegalStateException("Unable to grade bar "
+                        + position, e);
+            }
+        }
+        BAR_TIMER.stop(start);
+        consumer.accept(score);
+    }
+
+    /**
+     * Adds the features of a bar, or of the notes after the last bar line,
+     * to those of the piece
+     * @param features
+     */
+    private void addToPiece(TabFeatureVector features){
+        add(noteCount, features.noteCountArray());
+        for(int c = 0; c < TabFeatureVector.COURSES; c++){
+            add(fretCount[c], features.fretCountArray()[c]);
+        }
+        add(rhythmFlagCount, features.rhythmFlagCountArray());
+        highestFret = Math.max(highestFret, features.getHighestFret());
+        chordCount += features.getChordCount();
+        totalNoteCount += features.getTotalNoteCount();
+    }
+
+    /**
+     * Adds each value of one array to another
+     * @param total
+     * @param values
+     */
+    private static void add(int[] total, int[] values){
+        for(int i = 0; i < total.length; i++){
+            total[i] += values[i];
+        }
+    }
+
+    /**
+     * Combines the features of the last bars of the window into those of a
+     * piece of just those bars
+     * @param last the position of the last bar
+     * @param count the number of bars, no more than the size of the window
+     * @return features
+     */
+    private TabFeatureVector combine(int last, int count){
+        int[] notes = new int[noteCount.length];
+        int[][] frets = new int[TabFeatureVector.COURSES][TabFeatureVector.FRETS];
+        int[] flags = new int[rhythmFlagCount.length];
+        int[][] densest = null;
+        int densestNotes = -1;
+        int highest = 0;
+        int chords = 0;
+        int total = 0;
+        // From the earliest bar, so that the first of the densest bars is kept
+        for(int position = last - count + 1; position <= last; position++){
+            TabFeatureVector features = window[position % window.length];
+            add(notes, features.noteCountArray());
+            for(int c = 0; c < TabFeatureVector.COURSES; c++){
+                add(frets[c], features.fretCountArray()[c]);
+            }
+            add(flags, features.rhythmFlagCountArray());
+            if(features.getTotalNoteCount() > densestNotes){
+                densest = features.fretCountArray();
+                densestNotes = features.getTotalNoteCount();
+            }
+            highest = Math.max(highest, features.getHighestFret());
+            chords += features.getChordCount();
+            total += features.getTotalNoteCount();
+        }
+        return new TabFeatureVector(notes, frets, densest, flags, highest,
+                chords, total, count);
+    }
+
+    /**
+     * Scales the counts of a bar, window or the piece so far to those of a
+     * piece of referenceBars bars. The highest fret and the densest bar are
+     * kept.
+     * @param features
+     * @param bars the number of bars the features were found over
+     * @return features
+     */
+    private TabFeatureVector scale(TabFeatureVector features, int bars){
+        if(referenceBars <= 0 || bars == referenceBars){
+            return features;
+        }
+        double factor = (double)referenceBars / Math.max(bars, 1);
+        int[][] frets = new int[TabFeatureVector.COURSES][];
+        for(int c = 0; c < TabFeatureVector.COURSES; c++){
+            frets[c] = scale(features.fretCountArray()[c], factor);
+        }
+        return new TabFeatureVector(scale(features.noteCountArray(), factor),
+                frets, features.advancedFretCountArray(),
+                scale(features.rhythmFlagCountArray(), factor),
+                features.getHighestFret(),
+                (int)Math.round(features.getChordCount() * factor),
+                (int)Math.round(features.getTotalNoteCount() * factor),
+                referenceBars);
+    }
+
+    /**
+     * Scales each count of an array
+     * @param counts
+     * @param factor
+     * @return scaled counts
+     */
+    private static int[] scale(int[] counts, double factor){
+        int[] scaled = new int[counts.length];
+        for(int i = 0; i < counts.length; i++){
+            scaled[i] = (int)Math.round(counts[i] * factor);
+        }
+        return scaled;
+    }
+
+    /**
+     * Returns the features of the piece up to the end of the last bar read.
+     * They do not include the lines of a bar that has not yet been ended,
+     * and do not change as more lines are read.
+     * @return features
+     */
+    public TabFeatureVector getFeatures(){
+        int[][] frets = new int[TabFeatureVector.COURSES][];
+        for(int c = 0; c < TabFeatureVector.COURSES; c++){
+            frets[c] = fretCount[c].clone();
+        }
+        return new TabFeatureVector(noteCount.clone(), frets, densestBar,
+                rhythmFlagCount.clone(), highestFret, chordCount,
+                totalNoteCount, pieceBarCount);
+    }
+
+    /**
+     * Returns the number of bars scored
+     * @return barCount
+     */
+    public int getBarCount(){
+        return barCount;
+    }
+
+    /**
+     * Ends the Tab once every line has been read. Any notes after the last
+     * bar line are added to the piece, but are not a bar of their own.
+     * @return the features of the whole piece
+     */
+    public TabFeatureVector finish(){
+        TabFeatureVector features = TabFeatureVector.extract(bar.build(),
+                tuning);
+        bar.clear();
+        addToPiece(features);
+        return getFeatures();
+    }
+
+    /**
+     * Reads a tab file and scores each of its bars
+     * @param file
+     * @param model the model to grade the bars with, or null
+     * @param windowSize the number of bars in a window
+     * @param consumer receives the score of each bar as it is read
+     * @return the features of the whole piece
+     * @throws IOException
+     */
+    public static TabFeatureVector score(Path file, GradingModel model,
+            int windowSize, Consumer<BarScore> consumer) throws IOException{
+        BarScorer scorer = new BarScorer(model, windowSize, consumer);
+        MappedTabReader.readLines(file, scorer::addLine);
+        return scorer.finish();
+    }
+
+    /**
+     * Prints the score of each bar of a tab file
+     * @param args the tab file, and optionally a saved GradingModel and the
+     * number of bars in a window
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException{
+        if(args.length < 1 || args.length > 3){
+            System.out.println("Usage: BarScorer <tabFile> [model] [window]");
+            return;
+        }
+        GradingModel model = args.length > 1
+                ? GradingModel.load(Paths.get(args[1])) : null;
+        int windowSize = args.length > 2 ? Integer.parseInt(args[2])
+                : DEFAULT_WINDOW;
+        System.out.println("bar\tlines\tnotes\tbar\twindow\tpiece");
+        TabFeatureVector piece = score(Paths.get(args[0]), model, windowSize,
+                System.out::println);
+        System.out.println(piece.getBarCount() + " bars, "
+                + piece.getTotalNoteCount() + " notes");
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * A class that splits the notes of a Tab into bars as they are read.
+ * It counts the notes of the bar currently being read and only keeps the fret
+ * count of the bar with the most notes seen so far.
+ */
+package tabdifficultyanalyser;
+
+import java.util.Arrays;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class BarSegmenter {
+    private int[][] current;
+    private int[][] densest;
+    private int currentNoteCount;
+    private int densestNoteCount;
+
+    /**
+     * Default constructor for a BarSegmenter
+     */
+    public BarSegmenter(){
+        current = new int[TabFeatureVector.COURSES][TabFeatureVector.FRETS];
+        densest = new int[TabFeatureVector.COURSES][TabFeatureVector.FRETS];
+    }
+
+    /**
+     * Records a note played in the current bar. Notes on courses above the
+     * tenth are counted but have no place in the fret count.
+     * @param course the course (pair of lute strings), starting at 1
+     * @param fret the fret, starting at 0 for an open course
+     */
+    public void addNote(int course, int fret){
+        currentNoteCount++;
+        if(course <= TabFeatureVector.COURSES){
+            current[course-1][fret]++;
+        }
+    }
+
+    /**
+     * Ends the current bar. If it has more notes than any bar before it, its
+     * fret count is kept, otherwise it is cleared for the next bar.
+     */
+    public void endBar(){
+        if(currentNoteCount > densestNoteCount){
+            // Swap the two so that neither has to be reallocated
+            int[][] previous = densest;
+            densest = current;
+            current = previous;
+            densestNoteCount = currentNoteCount;
+        }
+        if(currentNoteCount > 0){
+            for(int[] course : current){
+                Arrays.fill(course, 0);
+            }
+        }
+        currentNoteCount = 0;
+    }
+
+    /**
+     * Returns the fret count of the bar with the most notes. Notes after the
+     * last bar line are not part of a bar.
+     * @return densest
+     */
+    public int[][] getDensestBar(){
+        return densest;
+    }
+
+    /**
+     * Returns the number of notes in the bar with the most notes
+     * @return densestNoteCount
+     */
+    public int getDensestNoteCount(){
+        return densestNoteCount;
+    }
+}
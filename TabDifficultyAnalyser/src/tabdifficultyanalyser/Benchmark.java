@@ -0,0 +1,323 @@
+/*
+ * A class that times the stages of the pipeline, from reading the tab files
+ * through finding their features to writing the ARFFs.
+ * Each benchmark is run a number of times to warm up the JIT and then timed
+ * over a number of measured iterations, and the mean, fastest and slowest
+ * time of one pass over the corpus are reported along with the number of
+ * tabs handled per second. Results are summed into a sink so that no work
+ * can be optimised away.
+ *
+ * The corpus is the bundled pieces folder, optionally followed by a larger
+ * synthetic corpus made from it by CorpusGenerator to show how each stage
+ * scales.
+ *
+ * This is a quick check that needs nothing but the project itself; the JMH
+ * benchmarks in the jmh folder, next to build.xml, time the same stages with
+ * forked JVMs and should be used to compare changes.
+ *
+ * Usage: Benchmark [rootFolder] [syntheticCount] [warmup] [iterations]
+ */
+package tabdifficultyanalyser;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import weka.core.Instances;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class Benchmark {
+    private final int warmup;
+    private final int iterations;
+    // Summed from every result so the JIT cannot drop the work
+    private long sink;
+
+    /**
+     * Constructor for a Benchmark
+     * @param warmup the number of untimed runs of each benchmark
+     * @param iterations the number of timed runs of each benchmark
+     */
+    public Benchmark(int warmup, int iterations){
+        this.warmup = warmup;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Runs a benchmark and prints its timings
+     * @param name
+     * @param tabs the number of tabs handled in one run
+     * @param task one run, returning a value that depends on its work
+     * @throws Exception
+     */
+    public void run(String name, int tabs, Task task) throws Exception{
+        for(int i = 0; i < warmup; i++){
+            sink += task.run();
+        }
+        long total = 0;
+        long fastest = Long.MAX_VALUE;
+        long slowest = 0;
+        for(int i = 0; i < iterations; i++){
+            long start = System.nanoTime();
+            sink += task.run();
+            long time = System.nanoTime() - start;
+            total += time;
+            fastest = Math.min(fastest, time);
+            slowest = Math.max(slowest, time);
+        }
+        double mean = (double)total / iterations;
+        System.out.printf("%-32s %10.3f ms/op  (min %.3f, max %.3f)  "
+                + "%12.0f tabs/s%n", name, mean / 1e6, fastest / 1e6,
+                slowest / 1e6, tabs / (mean / 1e9));
+    }
+
+    /**
+     * Returns the sum of every result, printed at the end of a run
+     * @return sink
+     */
+    public long getSink(){
+        return sink;
+    }
+
+    /**
+     * Runs every benchmark over a corpus
+     * @param rootFolder the corpus
+     * @throws Exception
+     */
+    public void runAll(String rootFolder) throws Exception{
+        TabDatabase db = new TabDatabase();
+        db.readInTabDatabase(rootFolder);
+        final int size = db.getSize();
+        final List<TabEvents> events = new ArrayList<>(size);
+        final List<TabFeatureVector> features = new ArrayList<>(size);
+        final int[] grades = new int[size];
+        for(int i = 0; i < size; i++){
+            events.add(db.getTab(i).getEvents());
+            features.add(db.getTab(i).getFeatureVector());
+            grades[i] = db.getTab(i).getGrade();
+        }
+        System.out.println(rootFolder + ": " + size + " tabs");
+
+        // Reading
+        run("readInTabDatabase", size, () -> {
+            TabDatabase read = new TabDatabase();
+            read.readInTabDatabase(rootFolder);
+            return read.getSize();
+        });
+        run("readInTabDatabase (1 thread)", size, () -> {
+            TabDatabase read = new TabDatabase();
+            read.setParallelism(1);
+            read.readInTabDatabase(rootFolder);
+            return read.getSize();
+        });
+        run("readInTabDatabase (mapped)", size, () -> {
+            TabDatabase read = new TabDatabase();
+            read.setMemoryMapped(true);
+            read.readInTabDatabase(rootFolder);
+            return read.getSize();
+        });
+
+        // Finding the features of each Tab. The getters share one pass over
+        // the tab, so each is timed on a Tab that has not found it yet.
+        run("TabFeatureVector.extract", size, () -> {
+            long sum = 0;
+            for(TabEvents e : events){
+                sum += TabFeatureVector.extract(e).getTotalNoteCount();
+            }
+            return sum;
+        });
+        getter("getNoteCount", events, grades, tab -> tab.getNoteCount()[0]);
+        getter("getHighestFret", events, grades, Tab::getHighestFret);
+        getter("getFretCount", events, grades,
+                tab -> tab.getFretCount()[0][0]);
+        getter("getChordCount", events, grades, Tab::getChordCount);
+        getter("getRhythmFlagCount", events, grades,
+                tab -> tab.getRhythmFlagCount()[0]);
+        getter("getAdvancedFretCount", events, grades,
+                tab -> tab.getAdvancedFretCount()[0][0]);
+        getter("getTotalNoteCount", events, grades, Tab::getTotalNoteCount);
+        getter("getBarCount", events, grades, Tab::getBarCount);
+
+        // Turning features into rows
+        run("combined (rows)", size, () -> {
+            long sum = 0;
+            int[] row = new int[FeatureSchema.COMBINED.getWidth()];
+            for(TabFeatureVector f : features){
+                FeatureSchema.COMBINED.fill(f, row);
+                sum += row[row.length-1];
+            }
+            return sum;
+        });
+        run("combined (Instances)", size, () ->
+                new FeatureExtractor().toInstances(db, FeatureSchema.COMBINED)
+                        .numInstances());
+
+        // Writing the ARFFs, to a folder of their own
+        final Path arffFolder = Files.createTempDirectory("arffs");
+        try{
+            run("ArffUtility (combined)", size, () ->
+                    writeArffs(arffFolder, features, grades,
+                            FeatureSchema.COMBINED));
+            run("ArffUtility (all feature sets)", size, () ->
+                    writeArffs(arffFolder, features, grades,
+                            FeatureSchema.ALL.toArray(new FeatureSchema[0])));
+
+            // Reading the combined ARFF back in
+            final String combined = arffFolder.resolve(
+                    FeatureSchema.COMBINED.getFileName()).toString();
+            run("ARFF read (weka)", size, () -> {
+                try(Reader reader = new BufferedReader(
+                        new FileReader(combined))){
+                    return new Instances(reader).numInstances();
+                }
+            });
+            run("ARFF read (FastArffReader)", size, () ->
+                    FastArffReader.read(combined).getSize());
+            run("ARFF read (FastArffReader + Instances)", size, () ->
+                    FastArffReader.read(combined).toInstances()
+                            .numInstances());
+
+            // The same rows as feature stores
+            final FeatureTable table = FastArffReader.read(combined);
+            final Path store = arffFolder.resolve(
+                    FeatureSchema.COMBINED.getRelation()
+                            + FeatureStore.EXTENSION);
+            final Path deflated = arffFolder.resolve(
+                    FeatureSchema.COMBINED.getRelation() + ".deflated"
+                            + FeatureStore.EXTENSION);
+            run("FeatureStore write", size, () -> {
+                FeatureStore.write(table, store, false);
+                return Files.size(store);
+            });
+            run("FeatureStore write (deflated)", size, () -> {
+                FeatureStore.write(table, deflated, true);
+                return Files.size(deflated);
+            });
+            run("FeatureStore read", size, () ->
+                    FeatureStore.read(store).getSize());
+            run("FeatureStore read (deflated)", size, () ->
+                    FeatureStore.read(deflated).getSize());
+            run("FeatureStore read + Instances", size, () ->
+                    FeatureStore.readInstances(store).numInstances());
+            System.out.println("Combined: ARFF " + Files.size(
+                    Paths.get(combined)) + " bytes, feature store "
+                    + Files.size(store) + " bytes, deflated "
+                    + Files.size(deflated) + " bytes");
+        }
+        finally{
+            delete(arffFolder);
+        }
+    }
+
+    /**
+     * Times a Tab getter on a new Tab for each of the tabs
+     * @param name
+     * @param events the parsed tabs
+     * @param grades
+     * @param getter
+     * @throws Exception
+     */
+    private void getter(String name, List<TabEvents> events, int[] grades,
+            ToLongFunction<Tab> getter) throws Exception{
+        run(name, events.size(), () -> {
+            long sum = 0;
+            for(int i = 0; i < grades.length; i++){
+                sum += getter.applyAsLong(new Tab(events.get(i), grades[i]));
+            }
+            return sum;
+        });
+    }
+
+    /**
+     * Writes the features of every Tab to the ARFFs of some feature sets
+     * @param folder
+     * @param features
+     * @param grades
+     * @param schemas
+     * @return the number of rows written
+     */
+    private static long writeArffs(Path folder, List<TabFeatureVector> features,
+            int[] grades, FeatureSchema... schemas){
+        try(ArffUtility arffUtility = new ArffUtility(folder.toString())){
+            for(FeatureSchema schema : schemas){
+                arffUtility.prepareArff(schema);
+            }
+            for(int i = 0; i < grades.length; i++){
+                for(FeatureSchema schema : schemas){
+                    arffUtility.toArff(schema, features.get(i), grades[i]);
+                }
+            }
+        }
+        return (long)grades.length * schemas.length;
+    }
+
+    /**
+     * Deletes a folder and everything in it, if it exists
+     * @param folder
+     * @throws IOException
+     */
+    private static void delete(Path folder) throws IOException{
+        if(!Files.exists(folder)){
+            return;
+        }
+        List<Path> paths;
+        try(Stream<Path> walk = Files.walk(folder)){
+            paths = walk.sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        }
+        for(Path path : paths){
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Runs the benchmarks over the bundled corpus and, if a number of tabs is
+     * given, over a synthetic corpus of that size made from it
+     * @param args rootFolder, syntheticCount, warmup and iterations
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception{
+        String rootFolder = args.length > 0 ? args[0] : "pieces";
+        long syntheticCount = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        int warmup = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        Benchmark benchmark = new Benchmark(warmup, iterations);
+        benchmark.runAll(rootFolder);
+        if(syntheticCount > 0){
+            Path synthetic = Files.createTempDirectory("synthetic");
+            try{
+                new CorpusGenerator(rootFolder).generate(synthetic.toString(),
+                        syntheticCount, 0);
+                benchmark.runAll(synthetic.toString());
+            }
+            finally{
+                delete(synthetic);
+            }
+        }
+        System.out.println("(" + benchmark.getSink() + ")");
+    }
+
+    /**
+     * One run of a benchmark
+     */
+    public interface Task {
+        /**
+         * Does the work being timed once
+         * @return a value that depends on the work
+         * @throws Exception
+         */
+        long run() throws Exception;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * A class that keeps a trained GradingModel in memory and grades tabs as
+ * they are sent to it, so each tab only costs its parsing, feature finding
+ * and classification rather than starting the JVM and training again.
+ *
+ * Tabs can be sent on standard input, one file path per line, and each is
+ * answered with a line of its grade and path:
+ *
+ *     3	pieces/grade3/13_Larouse.tab
+ *
+ * or to a local HTTP endpoint, where the body of a POST to /grade is the
+ * text of a tab file and the response is its grade and the probability of
+ * each grade as JSON:
+ *
+ *     {"grade":3,"distribution":[0.0,0.01,0.97,...]}
+ *
+ * The model is loaded from a file saved by GradingModel, or trained on a
+ * folder of graded tabs when the service starts.
+ *
+ * A whole folder of tabs can also be graded at once, with a line for each
+ * file as above.
+ *
+ * Usage: ClassificationService <model|trainFolder> [port|folderToGrade]
+ */
+package tabdifficultyanalyser;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class ClassificationService {
+    private static final Metrics.Timer REQUEST_TIMER =
+            Metrics.timer("service.request");
+
+    private final GradingModel model;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Constructor for a ClassificationService
+     * @param model a trained model
+     */
+    public ClassificationService(GradingModel model){
+        this.model = model;
+    }
+
+    /**
+     * Returns the model tabs are graded with
+     * @return model
+     */
+    public GradingModel getModel(){
+        return model;
+    }
+
+    /**
+     * Parses the text of a tab file into a Tab that has not been graded
+     * @param lines the lines of the tab
+     * @return tab
+     * @throws IOException
+     */
+    private static Tab parse(BufferedReader lines) throws IOException{
+        TabEvents.Builder builder = new TabEvents.Builder();
+        String line;
+        while((line = lines.readLine()) != null){
+            builder.addLine(line);
+        }
+        return new Tab(builder.build(), 0);
+    }
+
+    /**
+     * Reads file paths from standard input until it is closed, and writes
+     * the grade of each file to standard output
+     * @throws IOException
+     */
+    public void serveStdin() throws IOException{
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                System.in, StandardCharsets.UTF_8));
+        String path;
+        while((path = in.readLine()) != null){
+            path = path.trim();
+            if(path.isEmpty()){
+                continue;
+            }
+            long start = REQUEST_TIMER.start();
+            try(BufferedReader file = Files.newBufferedReader(Paths.get(path),
+                    StandardCharsets.ISO_8859_1)){
+                System.out.println(model.classify(parse(file)) + "\t" + path);
+            }
+            catch(Exception e){
+                System.out.println("0\t" + path + "\t" + e);
+            }
+            REQUEST_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Starts an HTTP server on the loopback address that grades the tabs
+     * posted to /grade. Requests are handled by a thread per core.
+     * @param port
+     * @throws IOException
+     */
+    public void startHttp(int port) throws IOException{
+        server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newFixedThreadPool(Parallel.defaultParallelism());
+        server.setExecutor(executor);
+        server.createContext("/grade", this::handleGrade);
+        server.createContext("/metrics", exchange ->
+                respond(exchange, 200, Metrics.toJson()));
+        server.start();
+    }
+
+    /**
+     * Stops the HTTP server, if it is running
+     */
+    public void stop(){
+        if(server != null){
+            server.stop(0);
+            executor.shutdown();
+            server = null;
+        }
+    }
+
+    /**
+     * Grades the tab in the body of a request
+     * @param exchange
+     * @throws IOException
+     */
+    private void handleGrade(HttpExchange exchange) throws IOException{
+        if(!"POST".equals(exchange.getRequestMethod())){
+            respond(exchange, 405, "{\"error\":\"POST a tab to /grade\"}");
+            return;
+        }
+        long start = REQUEST_TIMER.start();
+        String response;
+        int status = 200;
+        try(BufferedReader body = new BufferedReader(new InputStreamReader(
+                exchange.getRequestBody(), StandardCharsets.ISO_8859_1))){
+            Tab tab = parse(body);
+            double[] distribution = model.distribution(tab);
+            response = toJson(distribution);
+        }
+        catch(Exception e){
+            status = 400;
+            response = "{\"error\":\"" + String.valueOf(e.getMessage())
+                    .replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+        }
+        respond(exchange, status, response);
+        REQUEST_TIMER.stop(start);
+    }
+
+    /**
+     * Returns the grade with the highest probability and the probability of
+     * each grade as JSON
+     * @param distribution
+     * @return json
+     */
+    private static String toJson(double[] distribution){
+        int best = 0;
+        for(int i = 1; i < distribution.length; i++){
+            if(distribution[i] > distribution[best]){
+                best = i;
+            }
+        }
+        StringBuilder sb = new StringBuilder("{\"grade\":");
+        sb.append(best+1).append(",\"distribution\":[");
+        for(int i = 0; i < distribution.length; i++){
+            if(i > 0){
+                sb.append(',');
+            }
+            sb.append(String.format(Locale.ROOT, "%.6f", distribution[i]));
+        }
+        return sb.append("]}").toString();
+    }
+
+    /**
+     * Sends a JSON response
+     * @param exchange
+     * @param status
+     * @param body
+     * @throws IOException
+     */
+    private static void respond(HttpExchange exchange, int status, String body)
+            throws IOException{
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try(OutputStream out = exchange.getResponseBody()){
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Loads or trains a model once and then grades tabs from standard input,
+     * over HTTP if a port is given, or every tab in a folder if one is given
+     * @param args a saved model or a folder of graded tabs to train on, and
+     * an optional port or folder to grade
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception{
+        if(args.length < 1){
+            System.out.println("Usage: ClassificationService "
+                    + "<model|trainFolder> [port|folderToGrade]");
+            return;
+        }
+        GradingModel model;
+        if(Files.isRegularFile(Paths.get(args[0]))){
+            model = GradingModel.load(Paths.get(args[0]));
+        }
+        else{
+            TabDatabase train = new TabDatabase();
+            train.readInTabDatabase(args[0]);
+            model = new GradingModel();
+            model.train(train);
+        }
+        ClassificationService service = new ClassificationService(model);
+
+        if(args.length > 1 && Files.isDirectory(Paths.get(args[1]))){
+            model.classifyDirectory(args[1], System.out::println);
+        }
+        else if(args.length > 1){
+            int port = Integer.parseInt(args[1]);
+            service.startHttp(port);
+            System.out.println("Grading tabs posted to http://localhost:"
+                    + port + "/grade");
+        }
+        else{
+            service.serveStdin();
+        }
+    }
+}
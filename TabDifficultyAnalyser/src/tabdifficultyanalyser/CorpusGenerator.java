@@ -0,0 +1,255 @@
+/*
+ * A class that generates large synthetic corpora of tab files for testing
+ * how the pipeline scales.
+ * A seed corpus, such as the bundled pieces folder, is split into bars for
+ * each grade. Each new tab takes its number of bars from a seed tab of the
+ * same grade and fills them with bars picked at random from that grade, so
+ * the notes, frets, chords and rhythm flags of each grade follow the seed
+ * corpus. The number of tabs of each grade also follows the seed corpus.
+ *
+ * Tabs are written to the gradeN folders TabDatabase expects, split into
+ * shard folders so that no folder holds too many files:
+ *
+ *     <outFolder>/grade3/shard00012/3_12034.tab
+ *
+ * Shards are generated in parallel, each from its own seeded random number
+ * generator, so the same arguments always give the same corpus.
+ *
+ * Usage: CorpusGenerator <seedFolder> <outFolder> <count> [seed]
+ */
+package tabdifficultyanalyser;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class CorpusGenerator {
+    private static final int GRADES = 8;
+    // The number of tab files written to each shard folder
+    private static final int SHARD_SIZE = 1000;
+
+    // The bars of each grade, each bar being the lines between two bar lines
+    private final List<List<String[]>> bars = new ArrayList<>();
+    // The number of bars of each seed tab, by grade
+    private final List<List<Integer>> lengths = new ArrayList<>();
+    private int parallelism = Parallel.defaultParallelism();
+
+    /**
+     * Constructor for a CorpusGenerator that learns from the tab files under
+     * a seed folder
+     * @param seedFolder
+     * @throws IOException
+     */
+    public CorpusGenerator(String seedFolder) throws IOException{
+        for(int grade = 0; grade <= GRADES; grade++){
+            bars.add(new ArrayList<>());
+            lengths.add(new ArrayList<>());
+        }
+        List<Path> files;
+        try(Stream<Path> paths = Files.walk(Paths.get(seedFolder))){
+            files = paths.filter(path -> path.toString().contains(".tab"))
+                    .collect(Collectors.toList());
+        }
+        for(Path file : files){
+            int grade = TabDatabase.getGrade(file.toString());
+            if(grade >= 1 && grade <= GRADES){
+                addSeed(grade, Files.readAllLines(file,
+                        StandardCharsets.ISO_8859_1));
+            }
+        }
+    }
+
+    /**
+     * Splits a seed tab into bars. Lines before the first bar line are its
+     * header and are left out, as is anything after the last bar line.
+     * @param grade
+     * @param lines
+     */
+    private void addSeed(int grade, List<String> lines){
+        List<String> bar = null;
+        int count = 0;
+        for(String line : lines){
+            if(line.isEmpty()){
+                continue;
+            }
+            if(line.charAt(0) == 'b'){
+                if(bar != null && !bar.isEmpty()){
+                    bars.get(grade).add(bar.toArray(new String[0]));
+                    count++;
+                }
+                bar = new ArrayList<>();
+            }
+            else if(bar != null){
+                bar.add(line);
+            }
+        }
+        if(count > 0){
+            lengths.get(grade).add(count);
+        }
+    }
+
+    /**
+     * Sets the number of shards generated at the same time
+     * @param parallelism
+     */
+    public void setParallelism(int parallelism){
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the number of bars learned for a grade
+     * @param grade
+     * @return bars
+     */
+    public int getBarCount(int grade){
+        return bars.get(grade).size();
+    }
+
+    /**
+     * Writes a corpus of tabs, shared between the grades in the same
+     * proportions as the seed corpus
+     * @param outFolder
+     * @param count the number of tabs to write
+     * @param seed the seed of the random number generators
+     * @throws IOException
+     */
+    public void generate(String outFolder, long count, long seed)
+            throws IOException{
+        int seedTabs = 0;
+        for(List<Integer> grade : lengths){
+            seedTabs += grade.size();
+        }
+        if(seedTabs == 0){
+            throw new IOException("No graded tabs in the seed corpus");
+        }
+
+        // Share the tabs between the grades, giving any left over to the
+        // grades in turn
+        final long[] perGrade = new long[GRADES+1];
+        long shared = 0;
+        for(int grade = 1; grade <= GRADES; grade++){
+            perGrade[grade] = count * lengths.get(grade).size() / seedTabs;
+            shared += perGrade[grade];
+        }
+        for(int grade = 1; shared < count; grade = grade % GRADES + 1){
+            if(!lengths.get(grade).isEmpty()){
+                perGrade[grade]++;
+                shared++;
+            }
+        }
+
+        // Every shard of every grade is a separate task
+        final List<long[]> shards = new ArrayList<>();
+        for(int grade = 1; grade <= GRADES; grade++){
+            for(long first = 0; first < perGrade[grade]; first += SHARD_SIZE){
+                shards.add(new long[]{grade, first,
+                        Math.min(perGrade[grade], first + SHARD_SIZE)});
+            }
+        }
+        final Path root = Paths.get(outFolder);
+        try{
+            Parallel.forEach(parallelism, shards.size(), i -> {
+                long[] shard = shards.get(i);
+                try{
+                    writeShard(root, (int)shard[0], shard[1], shard[2],
+                            new Random(seed * 31 + i));
+                }
+                catch(IOException e){
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        catch(UncheckedIOException e){
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Writes the tabs of one shard of a grade
+     * @param root
+     * @param grade
+     * @param first the number of the first tab in the shard
+     * @param end the number after the last tab in the shard
+     * @param random
+     * @throws IOException
+     */
+    private void writeShard(Path root, int grade, long first, long end,
+            Random random) throws IOException{
+        Path folder = root.resolve("grade" + grade).resolve(
+                String.format("shard%05d", first / SHARD_SIZE));
+        Files.createDirectories(folder);
+        for(long n = first; n < end; n++){
+            Path file = folder.resolve(grade + "_" + n + ".tab");
+            try(BufferedWriter writer = Files.newBufferedWriter(file,
+                    StandardCharsets.ISO_8859_1)){
+                writeTab(writer, grade, n, random);
+            }
+        }
+    }
+
+    /**
+     * Writes one generated tab
+     * @param writer
+     * @param grade
+     * @param n the number of the tab
+     * @param random
+     * @throws IOException
+     */
+    private void writeTab(BufferedWriter writer, int grade, long n,
+            Random random) throws IOException{
+        List<String[]> gradeBars = bars.get(grade);
+        List<Integer> gradeLengths = lengths.get(grade);
+        int length = gradeLengths.get(random.nextInt(gradeLengths.size()));
+
+        writer.write("{Generated grade " + grade + " tab " + n + "}");
+        writer.newLine();
+        writer.newLine();
+        for(int i = 0; i < length; i++){
+            writer.write('b');
+            writer.newLine();
+            for(String line : gradeBars.get(random.nextInt(gradeBars.size()))){
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        // The same ending as the tabs in the seed corpus
+        writer.write("b");
+        writer.newLine();
+        writer.write("B");
+        writer.newLine();
+        writer.write("e");
+        writer.newLine();
+    }
+
+    /**
+     * Generates a corpus
+     * @param args seedFolder, outFolder, count and an optional seed
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception{
+        if(args.length < 3){
+            System.out.println("Usage: CorpusGenerator <seedFolder> "
+                    + "<outFolder> <count> [seed]");
+            return;
+        }
+        long count = Long.parseLong(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        long start = System.nanoTime();
+        new CorpusGenerator(args[0]).generate(args[1], count, seed);
+        System.out.printf("Generated %d tabs in %s (%.1f s)%n", count,
+                args[1], (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * A class that cross-validates classifiers on one or more feature sets,
+ * running the folds of every feature set in parallel.
+ * The data is shuffled with a fixed seed and each fold is trained on a copy
+ * of the classifier, so the results are the same whatever the number of
+ * threads. The evaluation of each fold is merged, in order, into one
+ * Evaluation per feature set, which gives the summary and the confusion
+ * matrix of the whole cross-validation.
+ */
+package tabdifficultyanalyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.AggregateableEvaluation;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class CrossValidation {
+    /**
+     * A number of folds that leaves out one instance in each fold
+     */
+    public static final int LEAVE_ONE_OUT = -1;
+
+    private final int folds;
+    private final long seed;
+    // The number of folds trained and tested at the same time
+    private int parallelism = Parallel.defaultParallelism();
+
+    /**
+     * Constructor for a CrossValidation
+     * @param folds the number of folds, or LEAVE_ONE_OUT
+     * @param seed the seed used to shuffle the data
+     */
+    public CrossValidation(int folds, long seed){
+        if(folds != LEAVE_ONE_OUT && folds < 2){
+            throw new IllegalArgumentException("At least 2 folds are needed");
+        }
+        this.folds = folds;
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the number of folds trained and tested at the same time. A
+     * parallelism of 1 runs them one after another.
+     * @param parallelism
+     */
+    public void setParallelism(int parallelism){
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Cross-validates a classifier on one feature set
+     * @param classifier the classifier, which is copied for each fold
+     * @param data the instances of the feature set, with the grade as class
+     * @return the merged evaluation of every fold
+     * @throws Exception if the classifier cannot be trained or tested
+     */
+    public Evaluation evaluate(Classifier classifier, Instances data)
+            throws Exception{
+        return evaluateAll(classifier, Arrays.asList(data)).get(0);
+    }
+
+    /**
+     * Cross-validates a classifier on several feature sets at once. The folds
+     * of every feature set share the same threads.
+     * @param classifier the classifier, which is copied for each fold
+     * @param datasets the instances of each feature set
+     * @return the merged evaluation of each feature set, in the same order
+     * @throws Exception if the classifier cannot be trained or tested
+     */
+    public List<Evaluation> evaluateAll(Classifier classifier,
+            List<Instances> datasets) throws Exception{
+        // Shuffle each feature set the same way and split it into folds
+        final List<Instances> shuffled = new ArrayList<>(datasets.size());
+        final List<int[]> tasks = new ArrayList<>();
+        final int[] foldCounts = new int[datasets.size()];
+        for(int d = 0; d < datasets.size(); d++){
+            Instances data = new Instances(datasets.get(d));
+            int n = data.numInstances();
+            foldCounts[d] = folds == LEAVE_ONE_OUT ? n : Math.min(folds, n);
+            data.randomize(new Random(seed));
+            if(data.classAttribute().isNominal() && foldCounts[d] < n){
+                data.stratify(foldCounts[d]);
+            }
+            shuffled.add(data);
+            for(int fold = 0; fold < foldCounts[d]; fold++){
+                tasks.add(new int[]{d, fold});
+            }
+        }
+
+        final Evaluation[] results = new Evaluation[tasks.size()];
+        Parallel.forEach(parallelism, tasks.size(), t -> {
+            int d = tasks.get(t)[0];
+            int fold = tasks.get(t)[1];
+            Instances data = shuffled.get(d);
+            Instances train = data.trainCV(foldCounts[d], fold);
+            Instances test = data.testCV(foldCounts[d], fold);
+            try{
+                // Copied as each fold starts, so only one copy is held for
+                // each fold being evaluated at the same time
+                Classifier copy = AbstractClassifier.makeCopy(classifier);
+                copy.buildClassifier(train);
+                Evaluation evaluation = new Evaluation(data);
+                evaluation.setPriors(train);
+                evaluation.evaluateModel(copy, test);
+                results[t] = evaluation;
+            }
+            catch(Exception e){
+                throw new IllegalStateException("Unable to evaluate fold "
+                        + fold + " of " + data.relationName(), e);
+            }
+        });
+
+        // Merge the folds of each feature set in order
+        List<Evaluation> evaluations = new ArrayList<>(datasets.size());
+        int t = 0;
+        for(int d = 0; d < datasets.size(); d++){
+            AggregateableEvaluation merged = new AggregateableEvaluation(
+                    new Evaluation(shuffled.get(d)));
+            for(int fold = 0; fold < foldCounts[d]; fold++){
+                merged.aggregate(results[t++]);
+            }
+            evaluations.add(merged);
+        }
+        return evaluations;
+    }
+
+    /**
+     * Cross-validates Naive Bayes and J48 on each ARFF and prints the
+     * summary, error rate and confusion matrix of each
+     * @param arffs the ARFF files of the feature sets
+     * @throws Exception if a classifier cannot be trained or tested
+     */
+    public void report(String[] arffs) throws Exception{
+        List<Instances> datasets = new ArrayList<>(arffs.length);
+        for(String arff : arffs){
+            datasets.add(Main.loadData(arff));
+        }
+        List<Evaluation> bayes = evaluateAll(new NaiveBayes(), datasets);
+        List<Evaluation> tree = evaluateAll(new J48(), datasets);
+
+        for(int i = 0; i < arffs.length; i++){
+            System.out.println();
+            System.out.println("*************** " + arffs[i]
+                    + " ***************");
+            System.out.println("Naive Bayes");
+            print(bayes.get(i));
+            System.out.println("Tree");
+            print(tree.get(i));
+        }
+    }
+
+    /**
+     * Prints the results of an evaluation
+     * @param e
+     * @throws Exception
+     */
+    private static void print(Evaluation e) throws Exception{
+        System.out.println(e.toSummaryString());
+        System.out.println("Error rate: " + e.errorRate());
+        System.out.println();
+        System.out.println(e.toMatrixString("=== Confusion Matrix ==="));
+    }
+
+    /**
+     * Cross-validates Naive Bayes and J48 on ARFFs
+     * @param args the number of folds (or "loo" for leave one out) followed
+     * by the ARFF files
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception{
+        if(args.length < 2){
+            System.out.println("Usage: CrossValidation <folds|loo> <arff>...");
+            return;
+        }
+        int folds = "loo".equals(args[0]) ? LEAVE_ONE_OUT
+                : Integer.parseInt(args[0]);
+        new CrossValidation(folds, 1).report(
+                Arrays.copyOfRange(args, 1, args.length));
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * A class that reads the ARFFs written by ArffUtility straight into a
+ * FeatureTable.
+ * It only understands what ArffUtility writes: numeric attributes followed
+ * by the grade as a nominal class, and rows of whole numbers, in full or in
+ * the sparse format. Within that it is much faster than the weka ARFF
+ * reader, as the file is memory-mapped and each number is parsed from its
+ * bytes without making a String or a token for it. Anything else, such as
+ * a missing value or a decimal point, is reported as an IOException so the
+ * weka reader can be used instead.
+ */
+package tabdifficultyanalyser;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class FastArffReader {
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final int limit;
+    private int position;
+
+    /**
+     * Constructor for a FastArffReader, used by read()
+     * @param file
+     * @param buffer
+     */
+    private FastArffReader(Path file, MappedByteBuffer buffer){
+        this.file = file;
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+    }
+
+    /**
+     * Reads an ARFF
+     * @param path
+     * @return the rows of the ARFF
+     * @throws IOException if the file cannot be read, or is not an ARFF as
+     * ArffUtility writes them
+     */
+    public static FeatureTable read(String path) throws IOException{
+        return read(Paths.get(path));
+    }
+
+    /**
+     * Reads an ARFF
+     * @param file
+     * @return the rows of the ARFF
+     * @throws IOException if the file cannot be read, or is not an ARFF as
+     * ArffUtility writes them
+     */
+    public static FeatureTable read(Path file) throws IOException{
+        try(FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)){
+            if(channel.size() > Integer.MAX_VALUE){
+                throw new IOException(file + " is too large to map");
+            }
+            MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new FastArffReader(file, buffer).readTable();
+        }
+    }
+
+    /**
+     * Reads the header and then every row
+     * @return table
+     * @throws IOException
+     */
+    private FeatureTable readTable() throws IOException{
+        String relation = null;
+        List<String> attributes = new ArrayList<>();
+        boolean grade = false;
+
+        // Header
+        while(true){
+            String line = nextHeaderLine();
+            if(line == null){
+                throw error("has no @data");
+            }
+            String lower = line.toLowerCase();
+            if(lower.startsWith("@relation")){
+                relation = unquote(line.substring(9).trim());
+            }
+            else if(lower.startsWith("@attribute")){
+                if(grade){
+                    throw error("has an attribute after the grade");
+                }
+                String rest = line.substring(10).trim();
+                if(rest.isEmpty()){
+                    throw error("has an attribute with no name");
+                }
+                int end = nameEnd(rest);
+                String name = unquote(rest.substring(0, end));
+                String type = rest.substring(end).trim().toLowerCase();
+                if(type.startsWith("{")){
+                    checkGrades(type);
+                    grade = true;
+                }
+                else if(type.equals("numeric") || type.equals("integer")
+                        || type.equals("real")){
+                    attributes.add(name);
+                }
+                else{
+                    throw error("has an attribute of type " + type);
+                }
+            }
+            else if(lower.startsWith("@data")){
+                break;
+            }
+            else{
+                throw error("has an unknown line: " + line);
+            }
+        }
+        if(relation == null || !grade){
+            throw error("has no relation or no grade");
+        }
+
+        // Rows
+        int width = attributes.size();
+        FeatureTable table = new FeatureTable(relation, attributes);
+        int[] row = new int[width];
+        SparseVector sparseRow = new SparseVector();
+        while(skipBlankLines()){
+            if(buffer.get(position) == '{'){
+                position++;
+                sparseRow.clear();
+                // A sparse row leaves out a grade of the first label, as
+                // it leaves out a value of 0
+                int rowGrade = 1;
+                while(true){
+                    skipSpaces();
+                    if(peek() == '}'){
+                        position++;
+                        break;
+                    }
+                    int index = parseInt();
+                    skipSpaces();
+                    if(index == width){
+                        rowGrade = parseGrade();
+                    }
+                    else if(index >= 0 && index < width){
+                        sparseRow.add(index, parseInt());
+                    }
+                    else{
+                        throw error("has a column out of range: " + index);
+                    }
+                    skipSpaces();
+                    if(peek() == ','){
+                        position++;
+                    }
+                }
+                table.add(sparseRow, rowGrade);
+            }
+            else{
+                for(int c = 0; c < width; c++){
+                    row[c] = parseInt();
+                    expect(',');
+                }
+                table.add(row, parseGrade());
+            }
+            endLine();
+        }
+        return table;
+    }
+
+    /**
+     * Returns the next header line that is not blank or a comment
+     * @return line, or null at the end of the file
+     */
+    private String nextHeaderLine(){
+        while(position < limit){
+            int start = position;
+            while(position < limit && buffer.get(position) != '\n'){
+                position++;
+            }
+            StringBuilder sb = new StringBuilder(position - start);
+            for(int i = start; i < position; i++){
+                sb.append((char)(buffer.get(i) & 0xff));
+            }
+            position++;
+            String line = sb.toString().trim();
+            if(!line.isEmpty() && line.charAt(0) != '%'){
+                return line;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the end of the name at the start of an attribute declaration,
+     * which may be quoted
+     * @param declaration
+     * @return the position after the name
+     */
+    private static int nameEnd(String declaration){
+        char first = declaration.charAt(0);
+        if(first == '\'' || first == '"'){
+            int close = declaration.indexOf(first, 1);
+            return close < 0 ? declaration.length() : close + 1;
+        }
+        int end = 0;
+        while(end < declaration.length()
+                && !Character.isWhitespace(declaration.charAt(end))){
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Removes the quotes around a name, if it has any
+     * @param name
+     * @return name
+     */
+    private static String unquote(String name){
+        if(name.length() >= 2 && (name.charAt(0) == '\'' || name.charAt(0) == '"')
+                && name.charAt(name.length()-1) == name.charAt(0)){
+            return name.substring(1, name.length()-1);
+        }
+        return name;
+    }
+
+    /**
+     * Checks that the grade attribute has the grades 1 to 8 in order, so
+     * that each label is its own grade
+     * @param type
+     * @throws IOException
+     */
+    private void checkGrades(String type) throws IOException{
+        String labels = type.replaceAll("[{}\\s]", "");
+        if(!labels.equals(String.join(",", FeatureExtractor.GRADES))){
+            throw error("has unknown grades " + type);
+        }
+    }
+
+    /**
+     * Skips blank lines and comments
+     * @return whether there is another row
+     */
+    private boolean skipBlankLines(){
+        while(position < limit){
+            byte b = buffer.get(position);
+            if(b == '\n' || b == '\r' || b == ' ' || b == '\t'){
+                position++;
+            }
+            else if(b == '%'){
+                while(position < limit && buffer.get(position) != '\n'){
+                    position++;
+                }
+            }
+            else{
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Skips spaces and tabs within a line
+     */
+    private void skipSpaces(){
+        while(position < limit && (buffer.get(position) == ' '
+                || buffer.get(position) == '\t')){
+            position++;
+        }
+    }
+
+    /**
+     * Returns the next byte without moving past it
+     * @return byte, or -1 at the end of the file
+     */
+    private int peek(){
+        return position < limit ? buffer.get(position) : -1;
+    }
+
+    /**
+     * Moves past a separator
+     * @param separator
+     * @throws IOException if it is not the next byte
+     */
+    private void expect(char separator) throws IOException{
+        skipSpaces();
+        if(peek() != separator){
+            throw error("is missing a '" + separator + "'");
+        }
+        position++;
+    }
+
+    /**
+     * Moves past the end of a row
+     * @throws IOException if the row has more on it
+     */
+    private void endLine() throws IOException{
+        skipSpaces();
+        int b = peek();
+        if(b != -1 && b != '\n' && b != '\r'){
+            throw error("has too many values in a row");
+        }
+    }
+
+    /**
+     * Parses a whole number
+     * @return value
+     * @throws IOException if the next value is not a whole number, or is too
+     * large for an int
+     */
+    private int parseInt() throws IOException{
+        skipSpaces();
+        boolean negative = false;
+        if(peek() == '-'){
+            negative = true;
+            position++;
+        }
+        int start = position;
+        // Most negative int is one further from 0 than the most positive
+        long max = negative ? -(long)Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        while(position < limit){
+            int digit = buffer.get(position) - '0';
+            if(digit < 0 || digit > 9){
+                break;
+            }
+            value = value*10 + digit;
+            if(value > max){
+                throw error("has a value too large for an int");
+            }
+            position++;
+        }
+        if(position == start){
+            throw error("has a value that is not a whole number");
+        }
+        return (int)(negative ? -value : value);
+    }
+
+    /**
+     * Parses the grade at the end of a row
+     * @return grade, or 0 if it is missing
+     * @throws IOException if the grade is not one of the declared grades
+     */
+    private int parseGrade() throws IOException{
+        skipSpaces();
+        if(peek() == '?'){
+            position++;
+            return 0;
+        }
+        int grade = parseInt();
+        if(grade < 1 || grade > FeatureExtractor.GRADES.size()){
+            throw error("has an unknown grade " + grade);
+        }
+        return grade;
+    }
+
+    /**
+     * Makes an exception describing a problem with the file
+     * @param problem
+     * @return exception
+     */
+    private IOException error(String problem){
+        return new IOException(file + " " + problem + " (at byte " + position
+                + ")");
+    }
+}
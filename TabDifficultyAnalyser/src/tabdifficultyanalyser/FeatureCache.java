@@ -0,0 +1,522 @@
+/*
+ * A class that keeps the features of each tab file on disk between runs.
+ * Each entry is keyed by the path of the file and the tuning its features
+ * were found with, together with the size and last modified time of the file
+ * when it was read, so only new or changed files need to be read and have
+ * their features found again.
+ *
+ * The features stay on disk: the file is a log of entries, each appended
+ * when a file is read, and only an index of where each entry is, with the
+ * size and modified time to check it against, is kept in memory. An entry
+ * is read from a mapping of the file when it is asked for, so the cache can
+ * be used while streaming a corpus of any size. An entry for a changed file
+ * is appended again, and the file is compacted when it is saved once more of
+ * it is old entries than current ones.
+ *
+ * Layout (big-endian):
+ *     int magic, int version
+ *     entries, each:
+ *         int length of the rest of the entry
+ *         UTF path, UTF tuning, long size, long modified time, features
+ */
+package tabdifficultyanalyser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class FeatureCache {
+    private static final int MAGIC = 0x54414246; // "TABF"
+    private static final int VERSION = 3;
+    private static final int HEADER = 8;
+
+    private final Path file;
+    // Where each entry is, by the key() of its path and tuning
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // The file, while entries are being appended to it
+    private FileChannel channel;
+    // A mapping of the file, remapped when an entry beyond it is read
+    private volatile MappedByteBuffer mapped;
+    // The length of the file, and how much of it is old entries
+    private long end;
+    private long garbage;
+
+    /**
+     * Constructor for a FeatureCache kept in a file. The entries already in
+     * the file are indexed; if it cannot be read the cache starts empty.
+     * @param file
+     */
+    public FeatureCache(Path file){
+        this.file = file;
+        try{
+            if(Files.exists(file)){
+                load();
+            }
+            if(end == 0){
+                create();
+            }
+        }
+        catch(IOException | RuntimeException e){
+            System.out.println("Unable to read feature cache " + file);
+            entries.clear();
+            try{
+                create();
+            }
+            catch(IOException e2){
+                System.out.println(e2);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of tab files in the cache
+     * @return size
+     */
+    public int getSize(){
+        return entries.size();
+    }
+
+    /**
+     * Returns the key of the entry for a tab file and tuning
+     * @param path
+     * @param tuning
+     * @return key
+     */
+    private static String key(String path, String tuning){
+        return tuning + "\n" + path;
+    }
+
+    /**
+     * Returns the path of the tab file of a key
+     * @param key
+     * @return path
+     */
+    private static String pathOf(String key){
+        return key.substring(key.indexOf('\n') + 1);
+    }
+
+    /**
+     * Returns a name for a tuning that tells it apart from any other
+     * @param tuning
+     * @return name and open courses
+     */
+    private static String tuningKey(Tuning tuning){
+        return tuning.getName() + " "
+                + String.join(",", tuning.getOpenCourses());
+    }
+
+    /**
+     * Returns the cached features of a tab file, if it has not changed since
+     * they were found with a tuning
+     * @param path the path of the tab file
+     * @param tuning
+     * @param attributes the attributes of the file now
+     * @return features, or null if the file is new or has changed
+     */
+    public TabFeatureVector get(String path, Tuning tuning,
+            BasicFileAttributes attributes){
+        Entry entry = entries.get(key(path, tuningKey(tuning)));
+        if(entry == null || entry.size != attributes.size() ||
+                entry.modified != attributes.lastModifiedTime().toMillis()){
+            return null;
+        }
+        try{
+            ByteBuffer buffer = mapping(entry.offset + entry.length);
+            buffer.position((int)entry.offset + 4);
+            skipUTF(buffer);
+            skipUTF(buffer);
+            buffer.position(buffer.position() + 16);
+            return readFeatures(buffer);
+        }
+        catch(IOException | RuntimeException e){
+            // Read the file again instead
+            return null;
+        }
+    }
+
+    /**
+     * Records the features of a tab file found with a tuning, appending them
+     * to the file. The attributes must be read before the file is, so that a
+     * change made while it was being read is seen the next time.
+     * @param path the path of the tab file
+     * @param tuning
+     * @param attributes the attributes of the file before it was read
+     * @param features
+     */
+    public void put(String path, Tuning tuning,
+            BasicFileAttributes attributes, TabFeatureVector features){
+        String tuningKey = tuningKey(tuning);
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        try{
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeUTF(path);
+            out.writeUTF(tuningKey);
+            out.writeLong(size);
+            out.writeLong(modified);
+            writeFeatures(out, features);
+            ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+            record.putInt(0, record.capacity() - 4);
+            synchronized(this){
+                if(channel == null){
+                    channel = FileChannel.open(file,
+                            StandardOpenOption.WRITE);
+                }
+                long offset = end;
+                while(record.hasRemaining()){
+                    channel.write(record, offset + record.position());
+                }
+                end += record.capacity();
+                Entry old = entries.put(key(path, tuningKey), new Entry(
+                        offset, record.capacity(), size, modified));
+                if(old != null){
+                    garbage += old.length;
+                }
+            }
+        }
+        catch(IOException e){
+            System.out.println("Unable to write feature cache: " + e);
+        }
+    }
+
+    /**
+     * Finishes writing the entries appended to the file, leaving out any tab
+     * files that no longer exist, and compacts the file if most of it is old
+     * entries. It must not be called while tabs are being read.
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException{
+        if(channel != null){
+            channel.close();
+            channel = null;
+        }
+        for(Map.Entry<String, Entry> e : entries.entrySet()){
+            if(!Files.exists(Paths.get(pathOf(e.getKey())))){
+                entries.remove(e.getKey());
+                garbage += e.getValue().length;
+            }
+        }
+        if(garbage > (end - HEADER) / 2){
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the file with only the current entries
+     * @throws IOException
+     */
+    private void compact() throws IOException{
+        ByteBuffer old = mapping(end);
+        Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+        long offset = HEADER;
+        try(FileChannel out = FileChannel.open(compacted,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)){
+            writeFully(out, header(), 0);
+            for(Map.Entry<String, Entry> e : entries.entrySet()){
+                Entry entry = e.getValue();
+                ByteBuffer record = old.duplicate();
+                record.limit((int)(entry.offset + entry.length));
+                record.position((int)entry.offset);
+                writeFully(out, record, offset);
+                e.setValue(new Entry(offset, entry.length, entry.size,
+                        entry.modified));
+                offset += entry.length;
+            }
+        }
+        mapped = null;
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING);
+        end = offset;
+        garbage = 0;
+    }
+
+    /**
+     * Returns a view of the file mapped at least as far as a position
+     * @param needed
+     * @return buffer
+     * @throws IOException
+     */
+    private ByteBuffer mapping(long needed) throws IOException{
+        MappedByteBuffer buffer = mapped;
+        if(buffer == null || buffer.capacity() < needed){
+            synchronized(this){
+                if(mapped == null || mapped.capacity() < needed){
+                    if(end > Integer.MAX_VALUE){
+                        throw new IOException(file + " is too large to map");
+                    }
+                    try(FileChannel in = FileChannel.open(file,
+                            StandardOpenOption.READ)){
+                        mapped = in.map(FileChannel.MapMode.READ_ONLY, 0,
+                                end);
+                    }
+                }
+                buffer = mapped;
+            }
+        }
+        return buffer.duplicate();
+    }
+
+    /**
+     * Starts an empty cache file
+     * @throws IOException
+     */
+    private void create() throws IOException{
+        try(FileChannel out = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)){
+            writeFully(out, header(), 0);
+        }
+        mapped = null;
+        end = HEADER;
+        garbage = 0;
+    }
+
+    /**
+     * Returns the header of the file
+     * @return header
+     */
+    private static ByteBuffer header(){
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Writes the whole of a buffer to a channel at a position
+     * @param channel
+     * @param buffer
+     * @param position
+     * @throws IOException
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer,
+            long position) throws IOException{
+        long start = position - buffer.position();
+        while(buffer.hasRemaining()){
+            channel.write(buffer, start + buffer.position());
+        }
+    }
+
+    /**
+     * Indexes the entries in the cache file. A file of another version is
+     * started again, and an entry cut short is dropped.
+     * @throws IOException
+     */
+    private void load() throws IOException{
+        try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ)){
+            long length = in.size();
+            if(length > Integer.MAX_VALUE){
+                throw new IOException(file + " is too large to map");
+            }
+            MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY,
+                    0, length);
+            if(length < HEADER || buffer.getInt() != MAGIC
+                    || buffer.getInt() != VERSION){
+                // Written by something else, or an older version
+                return;
+            }
+            long position = HEADER;
+            while(position + 4 <= length){
+                int recordLength = buffer.getInt((int)position) + 4;
+                if(recordLength < 4 || position + recordLength > length){
+                    break;
+                }
+                buffer.position((int)position + 4);
+                String path = readUTF(buffer);
+                String tuning = readUTF(buffer);
+                long size = buffer.getLong();
+                long modified = buffer.getLong();
+                Entry old = entries.put(key(path, tuning), new Entry(
+                        position, recordLength, size, modified));
+                if(old != null){
+                    garbage += old.length;
+                }
+                position += recordLength;
+            }
+            end = position;
+            mapped = buffer;
+        }
+        catch(BufferUnderflowException e){
+            throw new IOException(file + " is corrupt", e);
+        }
+        if(end < Files.size(file)){
+            // Drop an entry cut short, such as by the last run being stopped
+            try(FileChannel out = FileChannel.open(file,
+                    StandardOpenOption.WRITE)){
+                out.truncate(end);
+            }
+            mapped = null;
+        }
+    }
+
+    /**
+     * Reads a string written by DataOutputStream.writeUTF()
+     * @param buffer
+     * @return string
+     * @throws IOException
+     */
+    private static String readUTF(ByteBuffer buffer) throws IOException{
+        byte[] bytes = new byte[2 + (buffer.getShort(buffer.position())
+                & 0xffff)];
+        buffer.get(bytes);
+        return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+    }
+
+    /**
+     * Skips a string written by DataOutputStream.writeUTF()
+     * @param buffer
+     */
+    private static void skipUTF(ByteBuffer buffer){
+        int length = buffer.getShort() & 0xffff;
+        buffer.position(buffer.position() + length);
+    }
+
+    /**
+     * Writes the features of a Tab
+     * @param out
+     * @param features
+     * @throws IOException
+     */
+    private static void writeFeatures(DataOutputStream out,
+            TabFeatureVector features) throws IOException{
+        writeArray(out, features.noteCountArray());
+        writeMatrix(out, features.fretCountArray());
+        writeMatrix(out, features.advancedFretCountArray());
+        writeArray(out, features.rhythmFlagCountArray());
+        out.writeInt(features.getHighestFret());
+        out.writeInt(features.getChordCount());
+        out.writeInt(features.getTotalNoteCount());
+        out.writeInt(features.getBarCount());
+    }
+
+    /**
+     * Reads the features of a Tab
+     * @param in
+     * @return features
+     */
+    private static TabFeatureVector readFeatures(ByteBuffer in){
+        int[] noteCount = readArray(in);
+        int[][] fretCount = readMatrix(in);
+        int[][] advancedFretCount = readMatrix(in);
+        int[] rhythmFlagCount = readArray(in);
+        return new TabFeatureVector(noteCount, fretCount, advancedFretCount,
+                rhythmFlagCount, in.getInt(), in.getInt(), in.getInt(),
+                in.getInt());
+    }
+
+    /**
+     * Writes an array as its length followed by its values
+     * @param out
+     * @param values
+     * @throws IOException
+     */
+    private static void writeArray(DataOutputStream out, int[] values)
+            throws IOException{
+        out.writeShort(values.length);
+        for(int value : values){
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Reads an array written by writeArray()
+     * @param in
+     * @return values
+     */
+    private static int[] readArray(ByteBuffer in){
+        int[] values = new int[in.getShort()];
+        for(int i = 0; i < values.length; i++){
+            values[i] = in.getInt();
+        }
+        return values;
+    }
+
+    /**
+     * Writes a fret count matrix. Most frets are never played, so only the
+     * position and value of each count that is not zero are written.
+     * @param out
+     * @param matrix
+     * @throws IOException
+     */
+    private static void writeMatrix(DataOutputStream out, int[][] matrix)
+            throws IOException{
+        int nonZero = 0;
+        for(int[] course : matrix){
+            for(int count : course){
+                if(count != 0){
+                    nonZero++;
+                }
+            }
+        }
+        out.writeShort(nonZero);
+        for(int i = 0; i < matrix.length; i++){
+            for(int j = 0; j < matrix[i].length; j++){
+                if(matrix[i][j] != 0){
+                    out.writeShort(i*TabFeatureVector.FRETS + j);
+                    out.writeInt(matrix[i][j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a fret count matrix written by writeMatrix()
+     * @param in
+     * @return matrix
+     */
+    private static int[][] readMatrix(ByteBuffer in){
+        int[][] matrix = new int[TabFeatureVector.COURSES][TabFeatureVector.FRETS];
+        int nonZero = in.getShort();
+        for(int k = 0; k < nonZero; k++){
+            int position = in.getShort();
+            matrix[position / TabFeatureVector.FRETS]
+                    [position % TabFeatureVector.FRETS] = in.getInt();
+        }
+        return matrix;
+    }
+
+    /**
+     * Where the entry for a tab file is in the cache file, and the state of
+     * the tab file when its features were found
+     */
+    private static class Entry {
+        private final long offset;
+        private final int length;
+        private final long size;
+        private final long modified;
+
+        /**
+         * Constructor for an Entry
+         * @param offset where the entry starts in the cache file
+         * @param length the length of the entry, including its length
+         * @param size
+         * @param modified
+         */
+        Entry(long offset, int length, long size, long modified){
+            this.offset = offset;
+            this.length = length;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+}
@@ -1,208 +1,306 @@
 /*
- * A class that analyses each piece of lute tablature and records its 
+ * A class that analyses each piece of lute tablature and records its
  * attributes.
- * Once it has analysed a particular component of the tablature it then calls
- * the appropriate method to print to .arff
+ * It goes through the database once, finds the features of each Tab and then
+ * writes a row to the ARFF of every feature set asked for, or builds the
+ * weka Instances of a feature set in memory. The features of each Tab are
+ * independent, so they are found in parallel and then written in order.
+ * Tabs can also be given as a stream, which is worked through a batch at a
+ * time so that no more than one batch of tabs is held at once.
+ * Features can be kept sparse, writing sparse ARFFs and making weka
+ * SparseInstances, which is much smaller for the fret count matrices.
  */
 package tabdifficultyanalyser;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
 
 /**
  *
  * @author Joshua Foster
  */
 public class FeatureExtractor {
-    private final int courses = 10;
-    private final int frets = 16;
+    // The values of the grade attribute, as written in the ARFFs
+    static final List<String> GRADES = Collections.unmodifiableList(
+            Arrays.asList("1", "2", "3", "4", "5", "6", "7", "8"));
     // A instance of ArffUtility used to create and write arffs
     private final ArffUtility arffUtility;
-    
+    // The number of tabs whose features are found at the same time
+    private final int parallelism;
+    // The number of tabs taken from a stream per thread in each batch
+    private static final int STREAM_BATCH = 32;
+    // Whether features are written and made into instances sparsely
+    private boolean sparse;
+
     /**
-     * Default constructor for a FeatureExtractor object
+     * Default constructor for a FeatureExtractor object, which uses one
+     * thread per core
      */
     public FeatureExtractor(){
+        this(Parallel.defaultParallelism());
+    }
+
+    /**
+     * Constructor for a FeatureExtractor that finds the features of a number
+     * of tabs at the same time. A parallelism of 1 finds them one after
+     * another.
+     * @param parallelism the number of threads to use
+     */
+    public FeatureExtractor(int parallelism){
         arffUtility = new ArffUtility();
+        this.parallelism = parallelism;
     }
-    
+
     /**
-     * A simple method that takes an Tab of a TabDatabase and analyses
-     * the note counts. It then writes the results to an ARFF file
-     * @param tabDatabase 
+     * Sets whether features are kept sparse, so that the ARFFs are written in
+     * the sparse format and toInstances() makes SparseInstances
+     * @param sparse
      */
-    public void noteCount(TabDatabase tabDatabase){
-        int[] noteCount; // note order; A,A#,B,C,C#,D,D#,E,F,F#,G,G#
-        int grade;
-        // Sets up the arff file headers
-        arffUtility.prepareNoteCountArff();
-        // Go through each Tab in the TabDatabase
-        for(int i = 0; i < tabDatabase.getSize(); i++){
-            noteCount = tabDatabase.getTab(i).getNoteCount();
-            grade = tabDatabase.getTab(i).getGrade();
-            arffUtility.noteCountToArff(noteCount, grade);
-        }
+    public void setSparse(boolean sparse){
+        this.sparse = sparse;
+        arffUtility.setSparse(sparse);
     }
-    
+
     /**
-     * Finds the highest note played in a Tab and writes to an arff
+     * Sets whether a feature store is written for each feature set instead
+     * of an ARFF
+     * @param featureStore
+     * @param deflate whether to compress the columns
+     */
+    public void setFeatureStore(boolean featureStore, boolean deflate){
+        arffUtility.setFeatureStore(featureStore, deflate);
+    }
+
+    /**
+     * Makes the Instance of a Tab, sparse if features are kept sparse
+     * @param schema the feature set
+     * @param features the features of a Tab
+     * @param grade
+     * @param dataset the Instances the Instance belongs to
+     * @return instance
+     */
+    private Instance makeInstance(FeatureSchema schema,
+            TabFeatureVector features, int grade, Instances dataset){
+        return sparse ? toSparseInstance(schema, features, grade, dataset)
+                : toInstance(schema, features, grade, dataset);
+    }
+
+    /**
+     * Finds the features of every Tab in the TabDatabase in parallel
      * @param tabDatabase the database of tabs
+     * @return the features of each Tab, in the order of the database
      */
-    public void highestFret(TabDatabase tabDatabase){
-        int highestFret;
-        int grade;
-        arffUtility.prepareHighestFretArff();
-        
-        for(int i = 0; i < tabDatabase.getSize(); i++){
-            highestFret = tabDatabase.getTab(i).getHighestFret();
-            grade = tabDatabase.getTab(i).getGrade();
-            arffUtility.highestFretToArff(highestFret, grade);
-        }
+    private TabFeatureVector[] featureVectors(TabDatabase tabDatabase){
+        final TabFeatureVector[] features =
+                new TabFeatureVector[tabDatabase.getSize()];
+        Parallel.forEach(parallelism, features.length, i ->
+                features[i] = tabDatabase.getTab(i).getFeatureVector());
+        return features;
     }
-    
+
+    /**
+     * Finds the features of each Tab in the TabDatabase and writes them to
+     * the ARFF of a feature set
+     * @param tabDatabase the database of tabs
+     * @param schema the feature set
+     */
+    public void extract(TabDatabase tabDatabase, FeatureSchema schema){
+        extract(tabDatabase, Collections.singletonList(schema));
+    }
+
     /**
-     * Finds the noteCount and highest fret and combines theses in an arff
-     * @param tabDatabase the Tab database
+     * Goes through the TabDatabase once and writes the features of each Tab
+     * to the ARFF of every feature set, all at the same time
+     * @param tabDatabase the database of tabs
+     * @param schemas the feature sets
      */
-    public void noteCountAndHighestFret(TabDatabase tabDatabase){
-        int[] noteCount;
-        int highestFret;
-        int grade;
+    public void extract(TabDatabase tabDatabase, List<FeatureSchema> schemas){
         // Sets up the arff file headers
-        arffUtility.prepareNoteCountHighestFretArff();
-        
+        for(FeatureSchema schema : schemas){
+            arffUtility.prepareArff(schema);
+        }
+
+        TabFeatureVector[] features = featureVectors(tabDatabase);
         // Go through each Tab in the TabDatabase
-        for(int i = 0; i < tabDatabase.getSize(); i++){
-            noteCount = tabDatabase.getTab(i).getNoteCount();
-            highestFret = tabDatabase.getTab(i).getHighestFret();
-            grade = tabDatabase.getTab(i).getGrade();
-            arffUtility.noteCountHighestFretToArff(noteCount,highestFret,grade);
+        for(int i = 0; i < features.length; i++){
+            int grade = tabDatabase.getTab(i).getGrade();
+            for(FeatureSchema schema : schemas){
+                arffUtility.toArff(schema, features[i], grade);
+            }
         }
+        arffUtility.close();
     }
     
     /**
-     * Finds the count of notes played on each fret of the lute and records
-     * in fretCount.arff
-     * @param tabDatabase the Tab database
+     * Finds the features of each Tab in a stream and writes them to the ARFF
+     * of every feature set, without keeping the tabs once their rows are
+     * written
+     * @param tabs the tabs, for example from TabDatabase.stream()
+     * @param schemas the feature sets
      */
-    public void fretCount(TabDatabase tabDatabase){
-        int[][] fretCount;
-        int grade;
-        // Sets up the arff file headers
-        arffUtility.prepareFretCountArff(courses, frets);
-        
-        // Go through each Tab in the TabDatabase
-        for(int i = 0; i < tabDatabase.getSize(); i++){
-            fretCount = tabDatabase.getTab(i).getFretCount();
-            grade = tabDatabase.getTab(i).getGrade();
-            arffUtility.fretCountToArff(fretCount, grade);
+    public void extract(Stream<Tab> tabs, List<FeatureSchema> schemas){
+        for(FeatureSchema schema : schemas){
+            arffUtility.prepareArff(schema);
         }
+        forEachBatch(tabs, (batch, features) -> {
+            for(int i = 0; i < batch.size(); i++){
+                for(FeatureSchema schema : schemas){
+                    arffUtility.toArff(schema, features[i],
+                            batch.get(i).getGrade());
+                }
+            }
+        });
+        arffUtility.close();
     }
     
     /**
-     * Finds the number of instances in each Tab that contain more than 3 notes
-     * and writes to an arff
-     * @param tabDatabase 
+     * Finds the features of each Tab in a stream and returns them as weka
+     * Instances, without keeping the tabs once their instances are made
+     * @param tabs the tabs, for example from TabDatabase.stream()
+     * @param schema the feature set
+     * @return instances
      */
-    public void chordCount(TabDatabase tabDatabase){
-        int chordCount;
-        int grade;
-        arffUtility.prepareChordCountArff();
-        
-        for(int i = 0; i < tabDatabase.getSize(); i++){
-            chordCount = tabDatabase.getTab(i).getChordCount();
-            grade = tabDatabase.getTab(i).getGrade();
-            arffUtility.chordCountToArff(chordCount, grade);
-        }
+    public Instances toInstances(Stream<Tab> tabs, FeatureSchema schema){
+        Instances instances = createHeader(schema, 0);
+        forEachBatch(tabs, (batch, features) -> {
+            for(int i = 0; i < batch.size(); i++){
+                instances.add(makeInstance(schema, features[i],
+                        batch.get(i).getGrade(), instances));
+            }
+        });
+        return instances;
     }
     
     /**
-     * *******This still needs looking at*********
-     * @param tabDatabase 
+     * Takes tabs from a stream a batch at a time, finds their features in
+     * parallel and passes each batch on in order
+     * @param tabs
+     * @param consumer receives each batch of tabs and their features
      */
-    public void rhythmFlagCount(TabDatabase tabDatabase){
-        int[] rhythmFlagCount;
-        int grade;
-        // Sets up the arff file headers
-        arffUtility.prepareRhythmFlagCountArff();
+    private void forEachBatch(Stream<Tab> tabs,
+            BiConsumer<List<Tab>, TabFeatureVector[]> consumer){
+        int batchSize = Math.max(parallelism, 1) * STREAM_BATCH;
+        Iterator<Tab> iterator = tabs.iterator();
+        List<Tab> batch = new ArrayList<>(batchSize);
+        TabFeatureVector[] features = new TabFeatureVector[batchSize];
         
-        // Go through each Tab in the TabDatabase
-        for(int i = 0; i < tabDatabase.getSize(); i++){
-            rhythmFlagCount = tabDatabase.getTab(i).getRhythmFlagCount();
-            grade = tabDatabase.getTab(i).getGrade();
-            arffUtility.rhythmFlagCountToArff(rhythmFlagCount, grade);
+        while(iterator.hasNext()){
+            batch.add(iterator.next());
+            if(batch.size() == batchSize || !iterator.hasNext()){
+                Parallel.forEach(parallelism, batch.size(), i ->
+                        features[i] = batch.get(i).getFeatureVector());
+                consumer.accept(batch, features);
+                batch.clear();
+                Arrays.fill(features, null);
+            }
         }
     }
-        
     
     /**
-     * A method that seeks the bar of a Tab that features the highest number of
-     * notes. It then takes the count that each fret is played.
-     * @param tabDatabase 
+     * Finds the features of each Tab in the TabDatabase and returns them as
+     * weka Instances, the same as reading the ARFF of the feature set but
+     * without writing it to disk. The grade is the class attribute.
+     * @param tabDatabase the database of tabs
+     * @param schema the feature set
+     * @return instances
      */
-    public void advancedFretCount(TabDatabase tabDatabase){
-        int[][] advancedFretCount;
-        int grade;
-        arffUtility.prepareAdvancedFretCountArff(courses, frets);
-        
-        // Find the most bar with the most notes
-        for(int i = 0; i < tabDatabase.getSize(); i++){
-            advancedFretCount = tabDatabase.getTab(i).getAdvancedFretCount();
-            grade = tabDatabase.getTab(i).getGrade();
-            arffUtility.advancedFretCountToArff(advancedFretCount, grade);
+    public Instances toInstances(TabDatabase tabDatabase, FeatureSchema schema){
+        TabFeatureVector[] features = featureVectors(tabDatabase);
+        Instances instances = createHeader(schema, features.length);
+        for(int i = 0; i < features.length; i++){
+            instances.add(makeInstance(schema, features[i],
+                    tabDatabase.getTab(i).getGrade(), instances));
         }
+        return instances;
     }
     
     /**
-     * Writes an arff containing the total number of notes played in each Tab
-     * @param tabDatabase 
+     * Creates empty Instances with an attribute for each column of a feature
+     * set followed by the grade, which is set as the class attribute
+     * @param schema the feature set
+     * @param capacity the number of instances expected
+     * @return instances
      */
-    public void totalNoteCount(TabDatabase tabDatabase){
-        int totalNoteCount;
-        int grade;
-        arffUtility.prepareTotalNoteCountArff();
-        
-        for(int i = 0; i < tabDatabase.getSize(); i++){
-            totalNoteCount = tabDatabase.getTab(i).getTotalNoteCount();
-            grade = tabDatabase.getTab(i).getGrade();
-            arffUtility.totalNoteCountToArff(totalNoteCount, grade);
+    public static Instances createHeader(FeatureSchema schema, int capacity){
+        ArrayList<Attribute> attributes = new ArrayList<>(schema.getWidth()+1);
+        for(String name : schema.getAttributes()){
+            attributes.add(new Attribute(name));
         }
+        attributes.add(new Attribute("grade", GRADES));
+        Instances instances = new Instances(schema.getRelation(), attributes,
+                capacity);
+        instances.setClassIndex(instances.numAttributes()-1);
+        return instances;
     }
     
     /**
-     * Goes through each piece in the database and writes an arff containing
-     * the numbmer of bars
-     * @param tabDatabase 
+     * Creates an Instance from the features of a Tab. A grade outside of 1 to
+     * 8 (such as a Tab that has not been graded) leaves the class missing.
+     * @param schema the feature set
+     * @param features the features of a Tab
+     * @param grade
+     * @param dataset the Instances the Instance belongs to
+     * @return instance
      */
-    public void numberOfBars(TabDatabase tabDatabase){
-        int numberOfBars;
-        int grade;
-        arffUtility.prepareNumberOfBarsArff();
-        
-        for(int i = 0; i < tabDatabase.getSize(); i++){
-            numberOfBars = tabDatabase.getTab(i).getBarCount();
-            grade = tabDatabase.getTab(i).getGrade();
-            arffUtility.numberOfBarsToArff(numberOfBars, grade);
+    public static Instance toInstance(FeatureSchema schema, 
+            TabFeatureVector features, int grade, Instances dataset){
+        int[] row = schema.values(features);
+        double[] values = new double[row.length+1];
+        for(int i = 0; i < row.length; i++){
+            values[i] = row[i];
         }
+        if(grade >= 1 && grade <= GRADES.size()){
+            values[row.length] = grade-1;
+        }
+        else{
+            values[row.length] = Utils.missingValue();
+        }
+        Instance instance = new DenseInstance(1.0, values);
+        instance.setDataset(dataset);
+        return instance;
     }
     
     /**
-     * Creates an ARFF containing fretCount, chordCount, totalNoteCount,
-     * numberOfBars and highestFret
-     * @param tabDatabase 
+     * Creates a SparseInstance from the features of a Tab, holding only the
+     * columns that are not zero and the grade. A grade outside of 1 to 8
+     * leaves the class missing.
+     * @param schema the feature set
+     * @param features the features of a Tab
+     * @param grade
+     * @param dataset the Instances the Instance belongs to
+     * @return instance
      */
-    public void combined(TabDatabase tabDatabase){
-        int[][] fretCount;
-        int highestFret;
-        int totalNoteCount;
-        int grade;
-        arffUtility.prepareCombinedArff(courses, frets);
-        
-        for(int i = 0; i < tabDatabase.getSize(); i++){
-            fretCount = tabDatabase.getTab(i).getFretCount();
-            highestFret = tabDatabase.getTab(i).getHighestFret();
-            totalNoteCount = tabDatabase.getTab(i).getTotalNoteCount();
-            grade = tabDatabase.getTab(i).getGrade();
-            arffUtility.combinedToArff(fretCount, highestFret, 
-                    totalNoteCount, grade);
-        }    
+    public static Instance toSparseInstance(FeatureSchema schema,
+            TabFeatureVector features, int grade, Instances dataset){
+        SparseVector row = schema.sparseValues(features);
+        int count = row.getCount();
+        int[] indices = new int[count+1];
+        double[] values = new double[count+1];
+        for(int i = 0; i < count; i++){
+            indices[i] = row.getIndex(i);
+            values[i] = row.getValue(i);
+        }
+        indices[count] = schema.getWidth();
+        if(grade >= 1 && grade <= GRADES.size()){
+            values[count] = grade-1;
+        }
+        else{
+            values[count] = Utils.missingValue();
+        }
+        Instance instance = new SparseInstance(1.0, values, indices,
+                schema.getWidth()+1);
+        instance.setDataset(dataset);
+        return instance;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,343 @@
+/*
+ * A class that describes a feature set as a list of named columns.
+ * Each column takes its value from the TabFeatureVector of a Tab, so one
+ * feature vector can fill the rows of any number of feature sets.
+ */
+package tabdifficultyanalyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class FeatureSchema {
+    private static final String[] RHYTHM_FLAGS = {"2W", "W", "1/2", "1/4",
+                                                 "1/8", "1/16", "1/32",
+                                                 "1/64", "1/128", "triplet"};
+
+    public static final FeatureSchema NOTE_COUNT = builder("noteCount")
+            .columns(Tuning.CHROMATIC_SCALE, TabFeatureVector::noteCountArray)
+            .build();
+    public static final FeatureSchema HIGHEST_FRET = builder("highestFret")
+            .column("highestFret", TabFeatureVector::getHighestFret)
+            .build();
+    public static final FeatureSchema NOTE_COUNT_HIGHEST_FRET =
+            builder("noteCountHighestFret")
+            .columns(Tuning.CHROMATIC_SCALE, TabFeatureVector::noteCountArray)
+            .column("highestFret", TabFeatureVector::getHighestFret)
+            .build();
+    public static final FeatureSchema FRET_COUNT = builder("fretCount")
+            .matrix(TabFeatureVector::fretCountArray)
+            .build();
+    public static final FeatureSchema CHORD_COUNT = builder("chordCount")
+            .column("chordCount", TabFeatureVector::getChordCount)
+            .build();
+    public static final FeatureSchema RHYTHM_FLAG_COUNT =
+            builder("rhythmFlagCount")
+            .columns(RHYTHM_FLAGS, TabFeatureVector::rhythmFlagCountArray)
+            .build();
+    public static final FeatureSchema ADVANCED_FRET_COUNT =
+            builder("advancedFretCount")
+            .matrix(TabFeatureVector::advancedFretCountArray)
+            .build();
+    public static final FeatureSchema TOTAL_NOTE_COUNT =
+            builder("totalNoteCount")
+            .column("totalNoteCount", TabFeatureVector::getTotalNoteCount)
+            .build();
+    public static final FeatureSchema NUMBER_OF_BARS = builder("numberOfBars")
+            .column("bars", TabFeatureVector::getBarCount)
+            .build();
+    public static final FeatureSchema COMBINED = builder("combined")
+            .matrix(TabFeatureVector::fretCountArray)
+            .column("highestFret", TabFeatureVector::getHighestFret)
+            .column("totalNoteCount", TabFeatureVector::getTotalNoteCount)
+            .build();
+
+    /**
+     * Every feature set, in the order the ARFFs have always been written
+     */
+    public static final List<FeatureSchema> ALL = Collections.unmodifiableList(
+            Arrays.asList(NOTE_COUNT, HIGHEST_FRET, NOTE_COUNT_HIGHEST_FRET,
+                    FRET_COUNT, CHORD_COUNT, RHYTHM_FLAG_COUNT,
+                    ADVANCED_FRET_COUNT, TOTAL_NOTE_COUNT, NUMBER_OF_BARS,
+                    COMBINED));
+
+    private final String relation;
+    private final List<String> attributes;
+    private final List<ColumnGroup> groups;
+
+    /**
+     * Constructor for a FeatureSchema, used by the Builder
+     * @param relation
+     * @param attributes
+     * @param groups
+     */
+    private FeatureSchema(String relation, List<String> attributes,
+            List<ColumnGroup> groups){
+        this.relation = relation;
+        this.attributes = Collections.unmodifiableList(attributes);
+        this.groups = groups;
+    }
+
+    /**
+     * Returns a Builder for a new feature set
+     * @param relation the name of the feature set
+     * @return builder
+     */
+    public static Builder builder(String relation){
+        return new Builder(relation);
+    }
+
+    /**
+     * Returns one of the standard feature sets by its relation name
+     * @param relation
+     * @return the feature set, or null if there is none with that name
+     */
+    public static FeatureSchema forRelation(String relation){
+        for(FeatureSchema schema : ALL){
+            if(schema.relation.equals(relation)){
+                return schema;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the name of the feature set
+     * @return relation
+     */
+    public String getRelation(){
+        return relation;
+    }
+
+    /**
+     * Returns the name of the ARFF the feature set is written to
+     * @return fileName
+     */
+    public String getFileName(){
+        return relation + ".arff";
+    }
+
+    /**
+     * Returns the name of each column, not including the grade
+     * @return attributes
+     */
+    public List<String> getAttributes(){
+        return attributes;
+    }
+
+    /**
+     * Returns the number of columns, not including the grade
+     * @return width
+     */
+    public int getWidth(){
+        return attributes.size();
+    }
+
+    /**
+     * Fills a row with the value of each column
+     * @param features the features of a Tab
+     * @param row an array of at least getWidth() values
+     */
+    public void fill(TabFeatureVector features, int[] row){
+        int offset = 0;
+        for(ColumnGroup group : groups){
+            offset = group.fill(features, row, offset);
+        }
+    }
+
+    /**
+     * Fills a SparseVector with the columns that are not zero, without
+     * making the whole row
+     * @param features the features of a Tab
+     * @param row the vector, which is cleared first
+     */
+    public void fillSparse(TabFeatureVector features, SparseVector row){
+        row.clear();
+        int offset = 0;
+        for(ColumnGroup group : groups){
+            offset = group.fillSparse(features, row, offset);
+        }
+    }
+
+    /**
+     * Returns the columns that are not zero
+     * @param features the features of a Tab
+     * @return row
+     */
+    public SparseVector sparseValues(TabFeatureVector features){
+        SparseVector row = new SparseVector();
+        fillSparse(features, row);
+        return row;
+    }
+
+    /**
+     * Returns the value of each column
+     * @param features the features of a Tab
+     * @return row
+     */
+    public int[] values(TabFeatureVector features){
+        int[] row = new int[getWidth()];
+        fill(features, row);
+        return row;
+    }
+
+    @Override
+    public String toString(){
+        return relation;
+    }
+
+    /**
+     * A number of columns that take their values from the same feature
+     */
+    private interface ColumnGroup {
+        /**
+         * Copies the values of the feature into a row
+         * @param features
+         * @param row
+         * @param offset the position of the first column of the group
+         * @return the position after the last column of the group
+         */
+        int fill(TabFeatureVector features, int[] row, int offset);
+
+        /**
+         * Adds the values of the feature that are not zero to a row
+         * @param features
+         * @param row
+         * @param offset the position of the first column of the group
+         * @return the position after the last column of the group
+         */
+        int fillSparse(TabFeatureVector features, SparseVector row,
+                int offset);
+    }
+
+    /**
+     * A class for building a FeatureSchema one column at a time
+     */
+    public static class Builder {
+        private final String relation;
+        private final List<String> attributes = new ArrayList<>();
+        private final List<ColumnGroup> groups = new ArrayList<>();
+
+        /**
+         * Constructor for a Builder
+         * @param relation the name of the feature set
+         */
+        private Builder(String relation){
+            this.relation = relation;
+        }
+
+        /**
+         * Adds a column holding a single feature
+         * @param name
+         * @param feature
+         * @return this builder
+         */
+        public Builder column(String name,
+                ToIntFunction<TabFeatureVector> feature){
+            attributes.add(name);
+            groups.add(new ColumnGroup(){
+                @Override
+                public int fill(TabFeatureVector features, int[] row,
+                        int offset){
+                    row[offset] = feature.applyAsInt(features);
+                    return offset + 1;
+                }
+
+                @Override
+                public int fillSparse(TabFeatureVector features,
+                        SparseVector row, int offset){
+                    row.add(offset, feature.applyAsInt(features));
+                    return offset + 1;
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Adds a column for each value of a feature that is an array
+         * @param names the name of each column
+         * @param feature
+         * @return this builder
+         */
+        public Builder columns(String[] names,
+                Function<TabFeatureVector, int[]> feature){
+            final int width = names.length;
+            attributes.addAll(Arrays.asList(names));
+            groups.add(new ColumnGroup(){
+                @Override
+                public int fill(TabFeatureVector features, int[] row,
+                        int offset){
+                    System.arraycopy(feature.apply(features), 0, row, offset,
+                            width);
+                    return offset + width;
+                }
+
+                @Override
+                public int fillSparse(TabFeatureVector features,
+                        SparseVector row, int offset){
+                    int[] values = feature.apply(features);
+                    for(int i = 0; i < width; i++){
+                        row.add(offset + i, values[i]);
+                    }
+                    return offset + width;
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Adds a column for each fret of each course of a feature that is a
+         * fret count matrix. The columns are named [course][fret].
+         * @param feature
+         * @return this builder
+         */
+        public Builder matrix(Function<TabFeatureVector, int[][]> feature){
+            for(int i = 1; i <= TabFeatureVector.COURSES; i++){
+                for(int j = 0; j < TabFeatureVector.FRETS; j++){
+                    attributes.add("[" + i + "][" + j + "]");
+                }
+            }
+            groups.add(new ColumnGroup(){
+                @Override
+                public int fill(TabFeatureVector features, int[] row,
+                        int offset){
+                    for(int[] course : feature.apply(features)){
+                        System.arraycopy(course, 0, row, offset,
+                                course.length);
+                        offset += course.length;
+                    }
+                    return offset;
+                }
+
+                @Override
+                public int fillSparse(TabFeatureVector features,
+                        SparseVector row, int offset){
+                    for(int[] course : feature.apply(features)){
+                        for(int fret = 0; fret < course.length; fret++){
+                            row.add(offset + fret, course[fret]);
+                        }
+                        offset += course.length;
+                    }
+                    return offset;
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Returns the FeatureSchema
+         * @return schema
+         */
+        public FeatureSchema build(){
+            return new FeatureSchema(relation, new ArrayList<>(attributes),
+                    new ArrayList<>(groups));
+        }
+    }
+}
@@ -0,0 +1,659 @@
+/*
+ * A class that saves and loads a FeatureTable in a columnar binary format,
+ * as a faster alternative to ARFF text for large corpora.
+ * The header mirrors the @attribute declarations of an ARFF, and the rows
+ * follow in blocks of up to BLOCK_ROWS rows, so a Writer only holds one
+ * block in memory however many rows are written, and rows can be added to
+ * the end of a store that has already been saved. Within a block each
+ * column is stored as the narrowest whole numbers that hold all of its
+ * values: nothing at all for a column of zeros (most of the fret count
+ * matrix), or one, two or four bytes per row. The blocks can be deflated to
+ * make the file smaller again; if they are not, the file is mapped and each
+ * column is copied straight out of the mapping.
+ *
+ * Layout (big-endian):
+ *     int magic, int version, int flags (1 = deflated)
+ *     UTF relation, int width, UTF name of each attribute
+ *     UTF class name, int labelCount, UTF each label
+ *     int rowCount
+ *     blocks, each:
+ *         int rows, int bytes, int storedBytes
+ *         storedBytes of columns, deflated from bytes if flagged:
+ *             for each attribute: byte bytesPerValue (0, 1, 2 or 4), values
+ *             byte grade of each row (0 for missing)
+ */
+package tabdifficultyanalyser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import weka.core.Instances;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class FeatureStore {
+    /**
+     * The file extension of a feature store
+     */
+    public static final String EXTENSION = ".features";
+    /**
+     * The most rows written in one block
+     */
+    public static final int BLOCK_ROWS = 1024;
+
+    private static final int MAGIC = 0x54414243; // "TABC"
+    private static final int VERSION = 2;
+    private static final int DEFLATED = 1;
+
+    /**
+     * Private constructor, FeatureStore only has static methods
+     */
+    private FeatureStore(){
+    }
+
+    /**
+     * Creates (or empties) a feature store and writes its header, ready for
+     * rows to be added
+     * @param file
+     * @param relation the name of the feature set
+     * @param attributes the name of each column, not including the grade
+     * @param deflate whether to compress the blocks
+     * @return writer, which must be closed
+     * @throws IOException
+     */
+    public static Writer create(Path file, String relation,
+            List<String> attributes, boolean deflate) throws IOException{
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try{
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(deflate ? DEFLATED : 0);
+            out.writeUTF(relation);
+            out.writeInt(attributes.size());
+            for(String attribute : attributes){
+                out.writeUTF(attribute);
+            }
+            out.writeUTF("grade");
+            out.writeInt(FeatureExtractor.GRADES.size());
+            for(String label : FeatureExtractor.GRADES){
+                out.writeUTF(label);
+            }
+            int rowCountPosition = out.size();
+            out.writeInt(0);
+            writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()));
+            return new Writer(channel, deflate, attributes.size(),
+                    rowCountPosition, 0);
+        }
+        catch(IOException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a feature store to add rows to the end of it, creating it if it
+     * does not exist. The rows already saved are not read.
+     * @param file
+     * @param relation the name of the feature set
+     * @param attributes the name of each column, not including the grade
+     * @param deflate whether to compress the blocks, if the store is created;
+     * an existing store keeps compressing them or not as it did
+     * @return writer, which must be closed
+     * @throws IOException if the store holds a different feature set
+     */
+    public static Writer append(Path file, String relation,
+            List<String> attributes, boolean deflate) throws IOException{
+        if(!Files.exists(file)){
+            return create(file, relation, attributes, deflate);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try{
+            Header header = readHeader(file, channel);
+            if(!header.relation.equals(relation)
+                    || !header.attributes.equals(attributes)){
+                throw new IOException(file
+                        + " holds a different feature set");
+            }
+            channel.position(channel.size());
+            return new Writer(channel, (header.flags & DEFLATED) != 0,
+                    attributes.size(), header.rowCountPosition,
+                    header.rowCount);
+        }
+        catch(IOException | RuntimeException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Saves a table
+     * @param table
+     * @param file
+     * @param deflate whether to compress the blocks
+     * @throws IOException
+     */
+    public static void write(FeatureTable table, Path file, boolean deflate)
+            throws IOException{
+        try(Writer writer = create(file, table.getRelation(),
+                table.getAttributes(), deflate)){
+            int[] row = new int[table.getWidth()];
+            for(int r = 0; r < table.getSize(); r++){
+                for(int c = 0; c < row.length; c++){
+                    row[c] = table.get(r, c);
+                }
+                writer.add(row, table.getGrade(r));
+            }
+        }
+    }
+
+    /**
+     * Saves weka Instances that have whole numbers for attributes and the
+     * grade as their class
+     * @param instances
+     * @param file
+     * @param deflate whether to compress the blocks
+     * @throws IOException
+     */
+    public static void write(Instances instances, Path file, boolean deflate)
+            throws IOException{
+        write(FeatureTable.fromInstances(instances), file, deflate);
+    }
+
+    /**
+     * Writes the whole of a buffer to a channel
+     * @param channel
+     * @param buffer
+     * @throws IOException
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer)
+            throws IOException{
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Returns the fewest bytes that hold every value of a column
+     * @param column
+     * @param size the number of rows
+     * @return 0, 1, 2 or 4
+     */
+    private static int bytesPerValue(int[] column, int size){
+        int min = 0;
+        int max = 0;
+        for(int r = 0; r < size; r++){
+            min = Math.min(min, column[r]);
+            max = Math.max(max, column[r]);
+        }
+        if(min == 0 && max == 0){
+            return 0;
+        }
+        if(min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE){
+            return 1;
+        }
+        if(min >= Short.MIN_VALUE && max <= Short.MAX_VALUE){
+            return 2;
+        }
+        return 4;
+    }
+
+    /**
+     * Writes a column
+     * @param out
+     * @param column
+     * @param size the number of rows
+     * @param width the bytes per value
+     * @throws IOException
+     */
+    private static void writeColumn(DataOutputStream out, int[] column,
+            int size, int width) throws IOException{
+        out.writeByte(width);
+        for(int r = 0; r < size; r++){
+            switch(width){
+                case 1:
+                    out.writeByte(column[r]);
+                    break;
+                case 2:
+                    out.writeShort(column[r]);
+                    break;
+                case 4:
+                    out.writeInt(column[r]);
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Loads a table
+     * @param file
+     * @return table
+     * @throws IOException if the file cannot be read, is not a feature store
+     * or is truncated
+     */
+    public static FeatureTable read(Path file) throws IOException{
+        try(FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)){
+            if(channel.size() > Integer.MAX_VALUE){
+                throw new IOException(file + " is too large to map");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            try{
+                return read(file, buffer);
+            }
+            catch(BufferUnderflowException | IndexOutOfBoundsException
+                    | IllegalArgumentException e){
+                throw new IOException(file + " is truncated", e);
+            }
+        }
+    }
+
+    /**
+     * Loads a table from a mapped feature store
+     * @param file
+     * @param buffer the whole file
+     * @return table
+     * @throws IOException if the file is not a feature store
+     */
+    private static FeatureTable read(Path file, ByteBuffer buffer)
+            throws IOException{
+        Header header = readHeader(file, buffer);
+        int width = header.attributes.size();
+        int size = header.rowCount;
+        int[][] columns = new int[width][size];
+        int[] grades = new int[size];
+        boolean deflated = (header.flags & DEFLATED) != 0;
+        Inflater inflater = deflated ? new Inflater() : null;
+        byte[] stored = new byte[0];
+        byte[] inflated = new byte[0];
+        try{
+            int row = 0;
+            while(buffer.hasRemaining()){
+                int rows = buffer.getInt();
+                int bytes = buffer.getInt();
+                int storedBytes = buffer.getInt();
+                if(rows < 0 || bytes < 0 || storedBytes < 0
+                        || rows > size - row){
+                    throw new IOException(file
+                            + " does not match its header");
+                }
+                ByteBuffer body;
+                if(deflated){
+                    if(stored.length < storedBytes){
+                        stored = new byte[storedBytes];
+                    }
+                    buffer.get(stored, 0, storedBytes);
+                    if(inflated.length < bytes){
+                        inflated = new byte[bytes];
+                    }
+                    inflater.reset();
+                    inflater.setInput(stored, 0, storedBytes);
+                    if(inflate(inflater, inflated, bytes) != bytes){
+                        throw new IOException(file + " has a corrupt block");
+                    }
+                    body = ByteBuffer.wrap(inflated, 0, bytes);
+                }
+                else{
+                    body = buffer.slice();
+                    body.limit(storedBytes);
+                    buffer.position(buffer.position() + storedBytes);
+                }
+                for(int c = 0; c < width; c++){
+                    readColumn(body, columns[c], row, rows);
+                }
+                for(int r = 0; r < rows; r++){
+                    grades[row + r] = body.get();
+                }
+                row += rows;
+            }
+            if(row != size){
+                throw new IOException(file + " is truncated");
+            }
+        }
+        catch(DataFormatException e){
+            throw new IOException(file + " has a corrupt block", e);
+        }
+        finally{
+            if(inflater != null){
+                inflater.end();
+            }
+        }
+        return new FeatureTable(header.relation, header.attributes, columns,
+                grades, size);
+    }
+
+    /**
+     * Inflates a block
+     * @param inflater holding the deflated block as its input
+     * @param inflated
+     * @param bytes the size of the block
+     * @return the number of bytes inflated
+     * @throws DataFormatException if the block is corrupt
+     */
+    private static int inflate(Inflater inflater, byte[] inflated, int bytes)
+            throws DataFormatException{
+        int read = 0;
+        while(read < bytes && !inflater.finished()){
+            int n = inflater.inflate(inflated, read, bytes - read);
+            if(n == 0 && (inflater.needsInput()
+                    || inflater.needsDictionary())){
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * Loads a table as weka Instances, with the grade as the class
+     * @param file
+     * @return instances
+     * @throws IOException if the file cannot be read or is not a feature
+     * store
+     */
+    public static Instances readInstances(Path file) throws IOException{
+        return read(file).toInstances();
+    }
+
+    /**
+     * Reads the header of a feature store
+     * @param file
+     * @param buffer the file, from its start
+     * @return header
+     * @throws IOException if the file is not a feature store
+     */
+    private static Header readHeader(Path file, ByteBuffer buffer)
+            throws IOException{
+        if(buffer.remaining() < 12 || buffer.getInt() != MAGIC){
+            throw new IOException(file + " is not a feature store");
+        }
+        if(buffer.getInt() != VERSION){
+            throw new IOException(file + " has an unknown version");
+        }
+        Header header = new Header();
+        header.flags = buffer.getInt();
+        header.relation = readUTF(buffer);
+        int width = buffer.getInt();
+        for(int c = 0; c < width; c++){
+            header.attributes.add(readUTF(buffer));
+        }
+        readUTF(buffer);
+        List<String> labels = new ArrayList<>();
+        int labelCount = buffer.getInt();
+        for(int i = 0; i < labelCount; i++){
+            labels.add(readUTF(buffer));
+        }
+        if(!labels.equals(FeatureExtractor.GRADES)){
+            throw new IOException(file + " has unknown grades " + labels);
+        }
+        header.rowCountPosition = buffer.position();
+        header.rowCount = buffer.getInt();
+        return header;
+    }
+
+    /**
+     * Reads the header of a feature store without reading its blocks. Only
+     * the start of the file is read, more of it if the header is longer.
+     * @param file
+     * @param channel the file
+     * @return header
+     * @throws IOException if the file is not a feature store or is truncated
+     */
+    private static Header readHeader(Path file, FileChannel channel)
+            throws IOException{
+        int length = 1 << 16;
+        while(true){
+            ByteBuffer buffer = ByteBuffer.allocate(
+                    (int)Math.min(length, channel.size()));
+            while(buffer.hasRemaining()){
+                if(channel.read(buffer, buffer.position()) < 0){
+                    break;
+                }
+            }
+            buffer.flip();
+            try{
+                return readHeader(file, buffer);
+            }
+            catch(BufferUnderflowException e){
+                if(buffer.limit() >= channel.size()){
+                    throw new IOException(file + " is truncated", e);
+                }
+                length *= 2;
+            }
+        }
+    }
+
+    /**
+     * Reads the values of a column in a block
+     * @param body
+     * @param column
+     * @param offset the row the block starts at
+     * @param rows the number of rows in the block
+     * @throws IOException if the column has an unknown width
+     */
+    private static void readColumn(ByteBuffer body, int[] column, int offset,
+            int rows) throws IOException{
+        int width = body.get();
+        switch(width){
+            case 0:
+                break;
+            case 1:
+                for(int r = 0; r < rows; r++){
+                    column[offset + r] = body.get();
+                }
+                break;
+            case 2:
+                for(int r = 0; r < rows; r++){
+                    column[offset + r] = body.getShort();
+                }
+                break;
+            case 4:
+                body.asIntBuffer().get(column, offset, rows);
+                body.position(body.position() + 4*rows);
+                break;
+            default:
+                throw new IOException("Unknown column width " + width);
+        }
+    }
+
+    /**
+     * Reads a string written by DataOutputStream.writeUTF()
+     * @param buffer
+     * @return string
+     */
+    private static String readUTF(ByteBuffer buffer){
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        // Only the characters of attribute names are written, which modified
+        // UTF-8 writes the same as UTF-8
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The header of a feature store, up to its first block
+     */
+    private static class Header {
+        private int flags;
+        private String relation;
+        private final List<String> attributes = new ArrayList<>();
+        private int rowCount;
+        // Where rowCount is in the file
+        private long rowCountPosition;
+    }
+
+    /**
+     * Writes the rows of a feature store a block at a time. The number of
+     * rows in the header is only brought up to date when it is closed.
+     */
+    public static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final Deflater deflater;
+        // The rows of the current block, by column
+        private final int[][] columns;
+        private final int[] grades = new int[BLOCK_ROWS];
+        private int blockRows;
+        // The rows in the store, including those saved before it was opened
+        private int rowCount;
+        private final long rowCountPosition;
+        // The current block, before it is deflated
+        private final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        private final DataOutputStream rawOut = new DataOutputStream(raw);
+        private byte[] deflated = new byte[1 << 16];
+        private boolean closed;
+
+        /**
+         * Constructor for a Writer of a store whose header has been written
+         * @param channel the store, positioned at its end
+         * @param deflate whether to compress the blocks
+         * @param width the number of columns, not including the grade
+         * @param rowCountPosition where the number of rows is in the header
+         * @param rowCount the rows already saved
+         */
+        private Writer(FileChannel channel, boolean deflate, int width,
+                long rowCountPosition, int rowCount){
+            this.channel = channel;
+            this.deflater = deflate ? new Deflater() : null;
+            this.columns = new int[width][BLOCK_ROWS];
+            this.rowCountPosition = rowCountPosition;
+            this.rowCount = rowCount;
+        }
+
+        /**
+         * Adds a row, saving the block it is in once it is full
+         * @param row the value of each column
+         * @param grade from 1 to 8, or 0 if it is missing
+         * @throws IOException
+         */
+        public void add(int[] row, int grade) throws IOException{
+            for(int c = 0; c < columns.length; c++){
+                columns[c][blockRows] = row[c];
+            }
+            grades[blockRows] = grade;
+            if(++blockRows == BLOCK_ROWS){
+                writeBlock();
+            }
+        }
+
+        /**
+         * Returns the number of rows in the store
+         * @return rowCount, including those not yet saved
+         */
+        public int getRowCount(){
+            return rowCount + blockRows;
+        }
+
+        /**
+         * Saves the rows of the current block
+         * @throws IOException
+         */
+        private void writeBlock() throws IOException{
+            if(blockRows == 0){
+                return;
+            }
+            raw.reset();
+            for(int[] column : columns){
+                writeColumn(rawOut, column, blockRows,
+                        bytesPerValue(column, blockRows));
+            }
+            for(int r = 0; r < blockRows; r++){
+                rawOut.writeByte(grades[r]);
+            }
+            byte[] body = raw.toByteArray();
+            byte[] stored = body;
+            int storedBytes = body.length;
+            if(deflater != null){
+                deflater.reset();
+                deflater.setInput(body);
+                deflater.finish();
+                storedBytes = 0;
+                while(!deflater.finished()){
+                    if(storedBytes == deflated.length){
+                        deflated = Arrays.copyOf(deflated, storedBytes*2);
+                    }
+                    storedBytes += deflater.deflate(deflated, storedBytes,
+                            deflated.length - storedBytes);
+                }
+                stored = deflated;
+            }
+            ByteBuffer head = ByteBuffer.allocate(12);
+            head.putInt(blockRows).putInt(body.length).putInt(storedBytes);
+            head.flip();
+            writeFully(channel, head);
+            writeFully(channel, ByteBuffer.wrap(stored, 0, storedBytes));
+            rowCount += blockRows;
+            blockRows = 0;
+        }
+
+        /**
+         * Saves the last block, brings the number of rows in the header up
+         * to date and closes the store
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException{
+            if(closed){
+                return;
+            }
+            closed = true;
+            try{
+                writeBlock();
+                ByteBuffer count = ByteBuffer.allocate(4);
+                count.putInt(rowCount);
+                count.flip();
+                while(count.hasRemaining()){
+                    channel.write(count, rowCountPosition + count.position());
+                }
+            }
+            finally{
+                if(deflater != null){
+                    deflater.end();
+                }
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Converts ARFFs to feature stores, each saved next to its ARFF
+     * @param args "-z" to deflate the blocks, followed by the ARFF files
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException{
+        boolean deflate = args.length > 0 && args[0].equals("-z");
+        if(args.length == (deflate ? 1 : 0)){
+            System.out.println("Usage: FeatureStore [-z] <arff>...");
+            return;
+        }
+        for(int i = deflate ? 1 : 0; i < args.length; i++){
+            String arff = args[i];
+            String store = (arff.endsWith(".arff")
+                    ? arff.substring(0, arff.length()-5) : arff) + EXTENSION;
+            write(Main.loadData(arff), Paths.get(store), deflate);
+            System.out.println(store);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * A class that holds the rows of a feature set as a column of ints for each
+ * attribute, plus the grade of each row.
+ * Every feature is a count, so an int per value is enough and a table is a
+ * fraction of the size of the same rows as weka Instances. A table is filled
+ * a row at a time, growing as it goes, and can be turned into Instances when
+ * it is needed for weka.
+ */
+package tabdifficultyanalyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class FeatureTable {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final String relation;
+    private final List<String> attributes;
+    // The values of each attribute, by row
+    private final int[][] columns;
+    // The grade of each row, or 0 if it is missing
+    private int[] grades;
+    private int size;
+
+    /**
+     * Constructor for an empty FeatureTable
+     * @param relation the name of the feature set
+     * @param attributes the name of each column, not including the grade
+     */
+    public FeatureTable(String relation, List<String> attributes){
+        this(relation, attributes, INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructor for an empty FeatureTable with room for a number of rows
+     * before it has to grow
+     * @param relation the name of the feature set
+     * @param attributes the name of each column, not including the grade
+     * @param capacity
+     */
+    public FeatureTable(String relation, List<String> attributes,
+            int capacity){
+        this.relation = relation;
+        this.attributes = Collections.unmodifiableList(
+                new ArrayList<>(attributes));
+        capacity = Math.max(capacity, 1);
+        columns = new int[attributes.size()][capacity];
+        grades = new int[capacity];
+    }
+
+    /**
+     * Constructor for a FeatureTable holding columns that have already been
+     * read, which are kept rather than copied
+     * @param relation the name of the feature set
+     * @param attributes the name of each column, not including the grade
+     * @param columns the values of each column, at least size long
+     * @param grades the grade of each row, at least size long
+     * @param size the number of rows
+     */
+    FeatureTable(String relation, List<String> attributes, int[][] columns,
+            int[] grades, int size){
+        this.relation = relation;
+        this.attributes = Collections.unmodifiableList(
+                new ArrayList<>(attributes));
+        this.columns = columns;
+        this.grades = grades;
+        this.size = size;
+    }
+
+    /**
+     * Makes a table holding weka Instances
+     * @param instances whole numbers for each attribute, with the grade as
+     * the class attribute and the last attribute
+     * @return table
+     * @throws IllegalArgumentException if the instances are not a feature set
+     */
+    public static FeatureTable fromInstances(Instances instances){
+        int width = instances.numAttributes()-1;
+        if(instances.classIndex() != width
+                || !instances.classAttribute().isNominal()){
+            throw new IllegalArgumentException(instances.relationName()
+                    + " does not have the grade as its last attribute");
+        }
+        List<String> attributes = new ArrayList<>(width);
+        for(int c = 0; c < width; c++){
+            attributes.add(instances.attribute(c).name());
+        }
+        // The labels of the grade, which are the grades 1 to 8 when written
+        // by FeatureExtractor, are turned back into numbers
+        Attribute grade = instances.classAttribute();
+        int[] gradeOf = new int[grade.numValues()];
+        for(int v = 0; v < gradeOf.length; v++){
+            gradeOf[v] = FeatureExtractor.GRADES.indexOf(grade.value(v)) + 1;
+        }
+
+        int size = instances.numInstances();
+        int[][] columns = new int[width][size];
+        int[] grades = new int[size];
+        for(int r = 0; r < size; r++){
+            Instance instance = instances.instance(r);
+            for(int c = 0; c < width; c++){
+                double value = instance.value(c);
+                if(value != Math.rint(value)){
+                    throw new IllegalArgumentException(instances.attribute(c)
+                            .name() + " is not a whole number in row " + r);
+                }
+                columns[c][r] = (int)value;
+            }
+            grades[r] = instance.classIsMissing() ? 0
+                    : gradeOf[(int)instance.classValue()];
+        }
+        return new FeatureTable(instances.relationName(), attributes, columns,
+                grades, size);
+    }
+
+    /**
+     * Returns the name of the feature set
+     * @return relation
+     */
+    public String getRelation(){
+        return relation;
+    }
+
+    /**
+     * Returns the name of each column, not including the grade
+     * @return attributes
+     */
+    public List<String> getAttributes(){
+        return attributes;
+    }
+
+    /**
+     * Returns the number of columns, not including the grade
+     * @return width
+     */
+    public int getWidth(){
+        return columns.length;
+    }
+
+    /**
+     * Returns the number of rows
+     * @return size
+     */
+    public int getSize(){
+        return size;
+    }
+
+    /**
+     * Returns a value
+     * @param row
+     * @param column
+     * @return value
+     */
+    public int get(int row, int column){
+        return columns[column][row];
+    }
+
+    /**
+     * Returns the grade of a row
+     * @param row
+     * @return grade, from 1 to 8, or 0 if it is missing
+     */
+    public int getGrade(int row){
+        return grades[row];
+    }
+
+    /**
+     * Returns the array holding a column. Only the first getSize() values
+     * are rows of the table.
+     * @param column
+     * @return values
+     */
+    int[] columnArray(int column){
+        return columns[column];
+    }
+
+    /**
+     * Returns the array holding the grades. Only the first getSize() values
+     * are rows of the table.
+     * @return grades
+     */
+    int[] gradeArray(){
+        return grades;
+    }
+
+    /**
+     * Adds a row to the table
+     * @param row the value of each column
+     * @param grade from 1 to 8, or 0 if it is missing
+     */
+    public void add(int[] row, int grade){
+        int r = newRow(grade);
+        for(int c = 0; c < columns.length; c++){
+            columns[c][r] = row[c];
+        }
+    }
+
+    /**
+     * Adds a row to the table from its columns that are not zero
+     * @param row
+     * @param grade from 1 to 8, or 0 if it is missing
+     */
+    public void add(SparseVector row, int grade){
+        int r = newRow(grade);
+        for(int i = 0; i < row.getCount(); i++){
+            columns[row.getIndex(i)][r] = row.getValue(i);
+        }
+    }
+
+    /**
+     * Makes room for a new row, with every value zero, and returns its
+     * position
+     * @param grade
+     * @return row
+     */
+    private int newRow(int grade){
+        if(size == grades.length){
+            int capacity = Math.max(grades.length * 2, INITIAL_CAPACITY);
+            grades = Arrays.copyOf(grades, capacity);
+            for(int c = 0; c < columns.length; c++){
+                columns[c] = Arrays.copyOf(columns[c], capacity);
+            }
+        }
+        grades[size] = grade;
+        return size++;
+    }
+
+    /**
+     * Makes empty Instances with the attributes of the table, and the grade
+     * as the class attribute
+     * @param capacity
+     * @return instances
+     */
+    public Instances createHeader(int capacity){
+        FeatureSchema schema = FeatureSchema.forRelation(relation);
+        if(schema != null && schema.getAttributes().equals(attributes)){
+            return FeatureExtractor.createHeader(schema, capacity);
+        }
+        ArrayList<Attribute> header = new ArrayList<>(attributes.size()+1);
+        for(String name : attributes){
+            header.add(new Attribute(name));
+        }
+        header.add(new Attribute("grade", FeatureExtractor.GRADES));
+        Instances instances = new Instances(relation, header, capacity);
+        instances.setClassIndex(instances.numAttributes()-1);
+        return instances;
+    }
+
+    /**
+     * Returns the rows of the table as weka Instances, with the grade as the
+     * class attribute
+     * @return instances
+     */
+    public Instances toInstances(){
+        Instances instances = createHeader(size);
+        int width = columns.length;
+        for(int r = 0; r < size; r++){
+            double[] values = new double[width+1];
+            for(int c = 0; c < width; c++){
+                values[c] = columns[c][r];
+            }
+            values[width] = grades[r] == 0 ? Utils.missingValue()
+                    : grades[r]-1;
+            instances.add(new DenseInstance(1.0, values));
+        }
+        return instances;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * A class that holds the grade given to a Tab by a GradingModel, together
+ * with how likely the Tab is to be each grade.
+ */
+package tabdifficultyanalyser;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class Grading {
+    private final String name;
+    private final int grade;
+    private final double[] distribution;
+
+    /**
+     * Constructor for a Grading
+     * @param name the name of the Tab, such as its file path
+     * @param grade the grade, from 1 to 8, or 0 if none could be given
+     * @param distribution the probability of each grade, from grade 1
+     */
+    public Grading(String name, int grade, double[] distribution){
+        this.name = name;
+        this.grade = grade;
+        this.distribution = distribution;
+    }
+
+    /**
+     * Returns the name of the Tab
+     * @return name
+     */
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * Returns the grade given to the Tab
+     * @return grade, from 1 to 8, or 0 if none could be given
+     */
+    public int getGrade(){
+        return grade;
+    }
+
+    /**
+     * Returns the probability of each grade
+     * @return distribution, from grade 1 to grade 8
+     */
+    public double[] getDistribution(){
+        return distribution.clone();
+    }
+
+    /**
+     * Returns the probability of one grade
+     * @param grade from 1 to 8
+     * @return probability
+     */
+    public double getProbability(int grade){
+        return distribution[grade-1];
+    }
+
+    /**
+     * Returns the grade the Tab is expected to be, weighting each grade by
+     * how likely it is, which moves smoothly between the grades
+     * @return expected grade, from 1 to 8, or NaN if no grade is possible
+     */
+    public double getExpectedGrade(){
+        double expected = 0;
+        double total = 0;
+        for(int g = 0; g < distribution.length; g++){
+            expected += (g+1) * distribution[g];
+            total += distribution[g];
+        }
+        return total > 0 ? expected / total : Double.NaN;
+    }
+
+    @Override
+    public String toString(){
+        return grade + "\t" + name;
+    }
+}
@@ -0,0 +1,676 @@
+/*
+ * A class that grades tabs with a trained weka classifier.
+ * A model is a classifier together with the feature set and tuning it was
+ * trained with, so a Tab is always graded from the same features it was
+ * trained on. Once trained, a model can be kept in memory and used to grade
+ * any number of tabs without going through an ARFF. Grading only reads the
+ * model, so tabs can be graded from many threads at once with classifiers
+ * such as NaiveBayes and J48 whose predictions do not change their state.
+ *
+ * Many tabs, or a whole folder of them, can be graded at once. They are
+ * graded a batch at a time: the features of a batch are found in parallel
+ * and the batch is passed to the classifier in one go when it can predict
+ * a batch faster than one Instance at a time, and in parallel otherwise.
+ *
+ * A model with an UpdateableClassifier, such as NaiveBayesUpdateable (the
+ * default), can also learn newly graded tabs after it has been trained,
+ * without being trained again on every Tab. The model remembers each tab
+ * file it has learned by its absolute path, size and last modified time, so
+ * updating from a folder only reads the files that are new to it, and skips
+ * those that cannot be read. A file that is changed, or moved to another
+ * grade's folder, is learned again as it is now, but what was learned from
+ * it before is kept until the model is trained again from scratch.
+ * NaiveBayesUpdateable keeps the precision of each feature it found when it
+ * was first trained, so after learning many tabs it may grade slightly
+ * differently to a model trained again from scratch.
+ *
+ * A trained model can be saved and loaded again, so it only has to be
+ * trained once. The file is a small header describing the feature set,
+ * tuning and learned tabs followed by the serialized classifier, compressed:
+ *
+ *     int magic, int version,
+ *     UTF relation, int attributeCount, UTF name of each attribute,
+ *     UTF tuning name, UTF note of each open course,
+ *     int learnedCount, UTF key of each learned Tab (from version 2, where
+ *     the key is only its name),
+ *     int classifierLength, byte[] deflated serialized classifier
+ *
+ * Loading maps the file and reads the classifier straight from the mapping.
+ */
+package tabdifficultyanalyser;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
+import weka.core.BatchPredictor;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class GradingModel {
+    private static final Metrics.Timer CLASSIFY_TIMER =
+            Metrics.timer("model.classify");
+    private static final int MAGIC = 0x5441424d; // "TABM"
+    private static final int VERSION = 3;
+    private static final Metrics.Timer BATCH_TIMER =
+            Metrics.timer("model.batch");
+    private static final Metrics.Counter GRADED =
+            Metrics.counter("model.graded");
+    private static final Metrics.Timer UPDATE_TIMER =
+            Metrics.timer("model.update");
+    private static final Metrics.Counter LEARNED =
+            Metrics.counter("model.learned");
+    // The number of tabs graded together
+    private static final int BATCH_SIZE = 1024;
+
+    private final Classifier classifier;
+    private final FeatureSchema schema;
+    private final Tuning tuning;
+    // The attributes of the feature set, with the grade as the class
+    private final Instances header;
+    // The keyOf() each tab file the classifier has learned
+    private final Set<String> learned = new HashSet<>();
+    // The number of tabs whose features are found at the same time
+    private int parallelism = Parallel.defaultParallelism();
+
+    /**
+     * Constructor for a GradingModel using NaiveBayesUpdateable, which gives
+     * the same grades as NaiveBayes and can learn new tabs, and the combined
+     * feature set, as in the demonstration
+     */
+    public GradingModel(){
+        this(new NaiveBayesUpdateable(), FeatureSchema.COMBINED,
+                Tuning.RENAISSANCE);
+    }
+
+    /**
+     * Constructor for a GradingModel. The classifier is trained by train(),
+     * or must already have been trained on the feature set.
+     * @param classifier
+     * @param schema the feature set
+     * @param tuning the tuning used to find the notes of each Tab
+     */
+    public GradingModel(Classifier classifier, FeatureSchema schema,
+            Tuning tuning){
+        this.classifier = classifier;
+        this.schema = schema;
+        this.tuning = tuning;
+        this.header = FeatureExtractor.createHeader(schema, 0);
+    }
+
+    /**
+     * Returns the key a tab file is remembered by once it has been learned:
+     * its absolute path, size and last modified time
+     * @param path
+     * @return key, or null if the file cannot be found
+     */
+    private static String keyOf(String path){
+        try{
+            Path file = Paths.get(path).toAbsolutePath().normalize();
+            BasicFileAttributes attributes = Files.readAttributes(file,
+                    BasicFileAttributes.class);
+            return file + "|" + attributes.size() + "|"
+                    + attributes.lastModifiedTime().toMillis();
+        }
+        catch(IOException | InvalidPathException e){
+            return null;
+        }
+    }
+
+    /**
+     * Trains the classifier on every Tab in a TabDatabase. Each tab file is
+     * remembered as it is when training finishes.
+     * @param tabDatabase the graded tabs, which are set to the tuning of the
+     * model
+     * @throws Exception if the classifier cannot be trained
+     */
+    public void train(TabDatabase tabDatabase) throws Exception{
+        tabDatabase.setTuning(tuning);
+        Instances train = new FeatureExtractor().toInstances(tabDatabase,
+                schema);
+        classifier.buildClassifier(train);
+        learned.clear();
+        for(int i = 0; i < tabDatabase.getSize(); i++){
+            String name = tabDatabase.getTab(i).getName();
+            String key = name == null ? null : keyOf(name);
+            if(key != null){
+                learned.add(key);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the classifier can learn new tabs after it has been
+     * trained
+     * @return updateable
+     */
+    public boolean isUpdateable(){
+        return classifier instanceof UpdateableClassifier;
+    }
+
+    /**
+     * Returns the keys of the tab files the classifier has learned, each
+     * the absolute path, size and last modified time of the file
+     * @return keys
+     */
+    public Set<String> getLearned(){
+        return Collections.unmodifiableSet(learned);
+    }
+
+    /**
+     * Updates the trained classifier with any graded tabs it has not already
+     * learned. Tabs must not be graded from other threads while the model is
+     * being updated.
+     * @param tabs
+     * @return the number of tabs learned
+     * @throws Exception if the classifier cannot learn new tabs
+     */
+    public synchronized int update(Collection<Tab> tabs) throws Exception{
+        return update(tabs, Collections.emptyMap());
+    }
+
+    /**
+     * Updates the trained classifier with any graded tabs it has not already
+     * learned
+     * @param tabs
+     * @param keys the keyOf() tab files found before they were read, by
+     * path; any other file is remembered as it is now
+     * @return the number of tabs learned
+     * @throws Exception if the classifier cannot learn new tabs
+     */
+    private synchronized int update(Collection<Tab> tabs,
+            Map<String, String> keys) throws Exception{
+        if(!isUpdateable()){
+            throw new IllegalStateException(classifier.getClass().getName()
+                    + " cannot learn new tabs");
+        }
+        long start = UPDATE_TIMER.start();
+        UpdateableClassifier updateable = (UpdateableClassifier)classifier;
+        int count = 0;
+        for(Tab tab : tabs){
+            String name = tab.getName();
+            String key = name == null ? null
+                    : keys.containsKey(name) ? keys.get(name) : keyOf(name);
+            if(tab.getGrade() < 1
+                    || tab.getGrade() > FeatureExtractor.GRADES.size()
+                    || (key != null && learned.contains(key))){
+                continue;
+            }
+            if(tab.getTuning() != tuning){
+                tab.setTuning(tuning);
+            }
+            updateable.updateClassifier(FeatureExtractor.toInstance(schema,
+                    tab.getFeatureVector(), tab.getGrade(), header));
+            if(key != null){
+                learned.add(key);
+            }
+            count++;
+        }
+        LEARNED.add(count);
+        UPDATE_TIMER.stop(start);
+        return count;
+    }
+
+    /**
+     * Updates the trained classifier with the graded tab files under a
+     * folder that it has not already learned. Only the new and changed files
+     * are read, and each is remembered as it was just before it was read.
+     * @param rootFolder
+     * @return the number of tabs learned
+     * @throws Exception if the classifier cannot learn new tabs
+     */
+    public int updateDirectory(String rootFolder) throws Exception{
+        TabDatabase db = new TabDatabase();
+        db.setParallelism(parallelism);
+        db.setMemoryMapped(true);
+        int count = 0;
+        // The key of each file to be read, found before it is read so that
+        // a change made while it is being read is seen the next time
+        Map<String, String> keys = new HashMap<>();
+        try(Stream<Tab> tabs = db.stream(rootFolder, path -> {
+            String key = keyOf(path);
+            if(key == null || learned.contains(key)){
+                return false;
+            }
+            keys.put(path, key);
+            return true;
+        })){
+            Iterator<Tab> iterator = tabs.iterator();
+            List<Tab> batch = new ArrayList<>(BATCH_SIZE);
+            while(iterator.hasNext()){
+                batch.add(iterator.next());
+                if(batch.size() == BATCH_SIZE || !iterator.hasNext()){
+                    count += update(batch, keys);
+                    for(Tab tab : batch){
+                        keys.remove(tab.getName());
+                    }
+                    batch.clear();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the classifier
+     * @return classifier
+     */
+    public Classifier getClassifier(){
+        return classifier;
+    }
+
+    /**
+     * Returns the feature set the model uses
+     * @return schema
+     */
+    public FeatureSchema getSchema(){
+        return schema;
+    }
+
+    /**
+     * Returns the tuning the model uses
+     * @return tuning
+     */
+    public Tuning getTuning(){
+        return tuning;
+    }
+
+    /**
+     * Makes the Instance the classifier is given for a Tab, with its grade
+     * left missing
+     * @param tab
+     * @return instance
+     */
+    private Instance toInstance(Tab tab){
+        if(tab.getTuning() != tuning){
+            tab.setTuning(tuning);
+        }
+        return FeatureExtractor.toInstance(schema, tab.getFeatureVector(), 0,
+                header);
+    }
+
+    /**
+     * Grades a Tab
+     * @param tab
+     * @return grade, from 1 to 8, or 0 if the classifier cannot decide
+     * @throws Exception if the classifier cannot grade the Tab
+     */
+    public int classify(Tab tab) throws Exception{
+        long start = CLASSIFY_TIMER.start();
+        double prediction = classifier.classifyInstance(toInstance(tab));
+        CLASSIFY_TIMER.stop(start);
+        return Utils.isMissingValue(prediction) ? 0 : (int)prediction + 1;
+    }
+
+    /**
+     * Returns how likely a Tab is to be each grade
+     * @param tab
+     * @return the probability of each grade, from grade 1 to grade 8
+     * @throws Exception if the classifier cannot grade the Tab
+     */
+    public double[] distribution(Tab tab) throws Exception{
+        long start = CLASSIFY_TIMER.start();
+        double[] distribution = classifier.distributionForInstance(
+                toInstance(tab));
+        CLASSIFY_TIMER.stop(start);
+        return distribution;
+    }
+
+    /**
+     * Grades the features of a Tab, or of part of a Tab, which must have
+     * been found with the tuning of the model
+     * @param name the name of the Tab
+     * @param features
+     * @return grading
+     * @throws Exception if the classifier cannot grade the features
+     */
+    public Grading grade(String name, TabFeatureVector features)
+            throws Exception{
+        long start = CLASSIFY_TIMER.start();
+        double[] distribution = classifier.distributionForInstance(
+                FeatureExtractor.toInstance(schema, features, 0, header));
+        CLASSIFY_TIMER.stop(start);
+        int best = Utils.maxIndex(distribution);
+        // As classifyInstance(), no grade if every grade is impossible
+        return new Grading(name, distribution[best] > 0 ? best + 1 : 0,
+                distribution);
+    }
+
+    /**
+     * Sets the number of tabs whose features are found, and which are
+     * graded, at the same time
+     * @param parallelism
+     */
+    public void setParallelism(int parallelism){
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Grades many tabs
+     * @param tabs
+     * @return the grading of each Tab, in the same order
+     * @throws Exception if the classifier cannot grade a Tab
+     */
+    public List<Grading> classifyAll(Collection<Tab> tabs) throws Exception{
+        List<Tab> list = new ArrayList<>(tabs);
+        List<Grading> gradings = new ArrayList<>(list.size());
+        for(int from = 0; from < list.size(); from += BATCH_SIZE){
+            gradings.addAll(classifyBatch(list.subList(from,
+                    Math.min(list.size(), from + BATCH_SIZE))));
+        }
+        return gradings;
+    }
+
+    /**
+     * Grades every tab file under a folder
+     * @param rootFolder
+     * @return the grading of each file, in the order they are found
+     * @throws Exception if the classifier cannot grade a Tab
+     */
+    public List<Grading> classifyDirectory(String rootFolder)
+            throws Exception{
+        List<Grading> gradings = new ArrayList<>();
+        classifyDirectory(rootFolder, gradings::add);
+        return gradings;
+    }
+
+    /**
+     * Grades every tab file under a folder, passing on each grading as its
+     * batch is finished. The files are streamed, so a folder of any size can
+     * be graded.
+     * @param rootFolder
+     * @param consumer receives the grading of each file, in the order they
+     * are found
+     * @throws Exception if the classifier cannot grade a Tab
+     */
+    public void classifyDirectory(String rootFolder,
+            Consumer<Grading> consumer) throws Exception{
+        TabDatabase db = new TabDatabase();
+        db.setParallelism(parallelism);
+        db.setMemoryMapped(true);
+        try(Stream<Tab> tabs = db.stream(rootFolder)){
+            Iterator<Tab> iterator = tabs.iterator();
+            List<Tab> batch = new ArrayList<>(BATCH_SIZE);
+            while(iterator.hasNext()){
+                batch.add(iterator.next());
+                if(batch.size() == BATCH_SIZE || !iterator.hasNext()){
+                    classifyBatch(batch).forEach(consumer);
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Grades a batch of tabs
+     * @param batch
+     * @return the grading of each Tab, in the same order
+     * @throws Exception if the classifier cannot grade a Tab
+     */
+    private List<Grading> classifyBatch(List<Tab> batch) throws Exception{
+        long start = BATCH_TIMER.start();
+        final int size = batch.size();
+        final Instance[] rows = new Instance[size];
+        Parallel.forEach(parallelism, size, i ->
+                rows[i] = toInstance(batch.get(i)));
+        Instances instances = new Instances(header, size);
+        for(Instance row : rows){
+            instances.add(row);
+        }
+
+        final double[][] distributions;
+        if(classifier instanceof BatchPredictor && ((BatchPredictor)classifier)
+                .implementsMoreEfficientBatchPrediction()){
+            distributions = ((BatchPredictor)classifier)
+                    .distributionsForInstances(instances);
+        }
+        else{
+            distributions = new double[size][];
+            Parallel.forEach(parallelism, size, i -> {
+                try{
+                    distributions[i] = classifier.distributionForInstance(
+                            instances.instance(i));
+                }
+                catch(Exception e){
+                    throw new IllegalStateException("Unable to grade "
+                            + batch.get(i).getName(), e);
+                }
+            });
+        }
+
+        List<Grading> gradings = new ArrayList<>(size);
+        for(int i = 0; i < size; i++){
+            int best = Utils.maxIndex(distributions[i]);
+            // As classifyInstance(), no grade if every grade is impossible
+            int grade = distributions[i][best] > 0 ? best + 1 : 0;
+            gradings.add(new Grading(batch.get(i).getName(), grade,
+                    distributions[i]));
+        }
+        GRADED.add(size);
+        BATCH_TIMER.stop(start);
+        return gradings;
+    }
+
+    /**
+     * Saves the trained model to a file
+     * @param file
+     * @throws IOException
+     */
+    public void save(Path file) throws IOException{
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try(ObjectOutputStream out = new ObjectOutputStream(
+                new DeflaterOutputStream(serialized))){
+            out.writeObject(classifier);
+        }
+
+        try(DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file),
+                        1 << 16))){
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(schema.getRelation());
+            out.writeInt(schema.getWidth());
+            for(String attribute : schema.getAttributes()){
+                out.writeUTF(attribute);
+            }
+            out.writeUTF(tuning.getName());
+            for(String note : tuning.getOpenCourses()){
+                out.writeUTF(note);
+            }
+            out.writeInt(learned.size());
+            for(String key : learned){
+                out.writeUTF(key);
+            }
+            out.writeInt(serialized.size());
+            serialized.writeTo(out);
+        }
+    }
+
+    /**
+     * Loads a model saved by save()
+     * @param file
+     * @return the trained model
+     * @throws IOException if the file is not a model, or its feature set is
+     * not one of the standard feature sets
+     */
+    public static GradingModel load(Path file) throws IOException{
+        try(FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)){
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if(buffer.remaining() < 8 || buffer.getInt() != MAGIC){
+                throw new IOException(file + " is not a grading model");
+            }
+            // Version 1 models do not record the tabs they learned, and
+            // version 2 models only record their names
+            int version = buffer.getInt();
+            if(version < 1 || version > VERSION){
+                throw new IOException(file + " has an unknown version");
+            }
+
+            String relation = readUTF(buffer);
+            FeatureSchema schema = FeatureSchema.forRelation(relation);
+            String[] attributes = new String[buffer.getInt()];
+            for(int i = 0; i < attributes.length; i++){
+                attributes[i] = readUTF(buffer);
+            }
+            if(schema == null || !schema.getAttributes().equals(
+                    Arrays.asList(attributes))){
+                throw new IOException(file + " uses an unknown feature set "
+                        + relation);
+            }
+
+            String tuningName = readUTF(buffer);
+            String[] openCourses = new String[TabFeatureVector.COURSES];
+            for(int i = 0; i < openCourses.length; i++){
+                openCourses[i] = readUTF(buffer);
+            }
+            Tuning tuning = Tuning.of(tuningName, openCourses);
+
+            List<String> learned = new ArrayList<>();
+            if(version >= 2){
+                int count = buffer.getInt();
+                for(int i = 0; i < count; i++){
+                    String key = readUTF(buffer);
+                    if(version == 2){
+                        // Taken to be the file as it is now
+                        key = keyOf(key);
+                    }
+                    if(key != null){
+                        learned.add(key);
+                    }
+                }
+            }
+
+            int length = buffer.getInt();
+            ByteBuffer serialized = buffer.slice();
+            serialized.limit(length);
+            try(ObjectInputStream in = new ObjectInputStream(
+                    new InflaterInputStream(new BufferInputStream(
+                            serialized)))){
+                GradingModel model = new GradingModel(
+                        (Classifier)in.readObject(), schema, tuning);
+                model.learned.addAll(learned);
+                return model;
+            }
+            catch(ClassNotFoundException | ClassCastException e){
+                throw new IOException(file + " holds an unknown classifier",
+                        e);
+            }
+        }
+    }
+
+    /**
+     * Reads a string written by DataOutputStream.writeUTF()
+     * @param buffer
+     * @return string
+     */
+    private static String readUTF(ByteBuffer buffer){
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        // Only the characters of attribute and note names are written, which
+        // modified UTF-8 writes the same as UTF-8
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Trains a model on a folder of graded tabs and saves it. If the model
+     * has already been saved and can learn new tabs, it only learns the tabs
+     * that have been added to the folder since.
+     * @param args the folder of graded tabs and the file to save to
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception{
+        if(args.length != 2){
+            System.out.println("Usage: GradingModel <trainFolder> <model>");
+            return;
+        }
+        Path file = Paths.get(args[1]);
+        if(Files.exists(file)){
+            GradingModel model = load(file);
+            if(model.isUpdateable()){
+                int count = model.updateDirectory(args[0]);
+                if(count > 0){
+                    model.save(file);
+                }
+                System.out.println("Learned " + count + " new tabs and saved "
+                        + args[1]);
+                return;
+            }
+        }
+        TabDatabase train = new TabDatabase();
+        train.readInTabDatabase(args[0]);
+        GradingModel model = new GradingModel();
+        model.train(train);
+        model.save(file);
+        System.out.println("Trained on " + train.getSize() + " tabs and saved "
+                + args[1]);
+    }
+
+    /**
+     * An InputStream that reads from a buffer, such as a mapped file
+     */
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        /**
+         * Constructor for a BufferInputStream
+         * @param buffer
+         */
+        BufferInputStream(ByteBuffer buffer){
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read(){
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length){
+            if(length == 0){
+                return 0;
+            }
+            if(!buffer.hasRemaining()){
+                return -1;
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+    }
+}
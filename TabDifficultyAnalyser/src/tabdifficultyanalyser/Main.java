@@ -2,16 +2,19 @@
  * The main class that initiates the program.
  * It creates an instance of a TabDatabase after being passed the root folder 
  * for the graded pieces and then creates an instance of the FeatureExtractor
- * and creates each of the ARFFs ready to be used by weka.
+ * and creates each of the ARFFs ready to be used by weka. The demonstration
+ * builds its weka Instances in memory rather than going through an ARFF.
  */
 package tabdifficultyanalyser;
 
 import java.io.FileReader;
-import java.util.Random;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
 import weka.classifiers.Classifier;
-import weka.classifiers.Evaluation;
-import weka.classifiers.bayes.NaiveBayes;
-import weka.classifiers.trees.J48;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
 import weka.core.Instance;
 import weka.core.Instances;
 
@@ -20,15 +23,27 @@ import weka.core.Instances;
  * @author Joshua Foster
  */
 public class Main{
+    private static final Metrics.Timer ARFF_TIMER =
+            Metrics.timer("generateArffs");
+    private static final Metrics.Timer LOAD_TIMER = Metrics.timer("loadData");
+    private static final Metrics.Timer BUILD_TIMER =
+            Metrics.timer("buildClassifier");
+    private static final Metrics.Timer CLASSIFY_TIMER =
+            Metrics.timer("classifyInstance");
+    
     public static void main(String[] args) throws Exception {
         // The root folder for each of the graded piece subfolders
         final String rootFolder = "pieces";
-        // Create a new db object for storing tab objects
+        // Create a new db object for reading tab objects
         TabDatabase db = new TabDatabase();
-        // Read all the tabs into the database
-        db.readInTabDatabase(rootFolder);
-        // Generate the ARFFs
-        generateArffs(db);
+        // Only read the tabs that have changed since the last run
+        db.setFeatureCache(new FeatureCache(Paths.get("features.cache")));
+        // Stream the tabs through to the ARFFs without holding them all
+        long arffStart = ARFF_TIMER.start();
+        try(Stream<Tab> tabs = db.stream(rootFolder)){
+            new FeatureExtractor().extract(tabs, FeatureSchema.ALL);
+        }
+        ARFF_TIMER.stop(arffStart);
         
         String[] arffs = {"noteCount.arff", "highestFret.arff", 
                           "noteCountHighestFret.arff", "fretCount.arff",
@@ -36,58 +51,65 @@ public class Main{
                           "advancedFretCount.arff", "totalNoteCount.arff",
                           "numberOfBars.arff", "combined.arff"};
         
-        // LOOCV for each arff
-//        for(String arff : arffs){
-//            System.out.println();
-//            System.out.println("*************** " + arff + " ***************");
-//            // Load arff
-//            Instances data = loadData(arff);
-//            
-//            // Create instance of Naive Bayes classifier and Evaluation object
-//            NaiveBayes nb = new NaiveBayes();
-//            //J48 tree = new J48();
-//            Evaluation e = new Evaluation(data);
-//            // Number of folds for cross validation
-//            int folds = data.size()-1;
-//            // Cross validate
-//            System.out.println("Naive Bayes");
-//            e.crossValidateModel(nb, data, folds, new Random(1));
-//            // Output results
-//            System.out.println(e.toSummaryString());
-//            System.out.println("Error rate: " + e.errorRate());
-//            System.out.println();
-//            System.out.println(e.toMatrixString("=== Confusion Matrix ==="));
-//            
-//            /*System.out.println("Tree");
-//            e = new Evaluation(data);
-//            e.crossValidateModel(tree, data, folds, new Random(1));
-//            // Output results
-//            System.out.println(e.toSummaryString());
-//            System.out.println("Error rate: " + e.errorRate());
-//            System.out.println();
-//            System.out.println(e.toMatrixString("=== Confusion Matrix ==="));*/
-//            
-//        }
+        // LOOCV for each arff, with Naive Bayes and J48, on every core
+//        new CrossValidation(CrossValidation.LEAVE_ONE_OUT, 1).report(arffs);
         
         // Demonstration
-        // Read in training data
-        TabDatabase trainDB = new TabDatabase();
-        trainDB.readInTabDatabase("demo/pieces");
-        // Create arffs and load instances from combined.arff
-        generateArffs(trainDB);
-        Instances train = loadData("combined.arff");
-        // Build classifier
-        NaiveBayes nb = new NaiveBayes();
-        nb.buildClassifier(train);
-        // Read in test data (2 examples) and produce arffs
+        // Load the trained classifier if it has been saved (delete the model
+        // file to train it again) and learn any pieces added since, otherwise
+        // train it and save it
+        Path modelFile = Paths.get("demo.model");
+        GradingModel model = Files.exists(modelFile)
+                ? GradingModel.load(modelFile) : null;
+        if(model != null && model.isUpdateable()){
+            long start = BUILD_TIMER.start();
+            int learned = model.updateDirectory("demo/pieces");
+            BUILD_TIMER.stop(start);
+            if(learned > 0){
+                model.save(modelFile);
+            }
+        }
+        else{
+            // Read in training data
+            TabDatabase trainDB = new TabDatabase();
+            trainDB.readInTabDatabase("demo/pieces");
+            // Build classifier on the combined instances, built in memory
+            model = new GradingModel(new NaiveBayesUpdateable(),
+                    FeatureSchema.COMBINED, Tuning.RENAISSANCE);
+            long start = BUILD_TIMER.start();
+            model.train(trainDB);
+            BUILD_TIMER.stop(start);
+            model.save(modelFile);
+        }
+        Classifier nb = model.getClassifier();
+        // Read in test data (2 examples) and build their instances
+        FeatureExtractor ft = new FeatureExtractor();
         TabDatabase testDB = new TabDatabase();
         testDB.readInTabDatabase("demo/demo");
-        generateArffs(testDB);
-        Instances test = loadData("combined.arff");
-        System.out.println(nb.classifyInstance(test.instance(0))+1);
-        System.out.println(nb.classifyInstance(test.instance(1))+1);
+        Instances test = ft.toInstances(testDB, FeatureSchema.COMBINED);
+        System.out.println(classify(nb, test.instance(0))+1);
+        System.out.println(classify(nb, test.instance(1))+1);
 
         System.out.println(test.instance(1));
+        
+        // Where the time went
+        System.out.println();
+        System.out.print(Metrics.report());
+    }
+    
+    /**
+     * Classifies an instance, recording how long it takes
+     * @param classifier
+     * @param instance
+     * @return the index of the predicted class
+     * @throws Exception 
+     */
+    public static double classify(Classifier classifier, Instance instance)
+            throws Exception{
+        long start = CLASSIFY_TIMER.start();
+        double prediction = classifier.classifyInstance(instance);
+        CLASSIFY_TIMER.stop(start);
+        return prediction;
     }
     
     /**
@@ -97,35 +119,36 @@ public class Main{
     public static void generateArffs(TabDatabase db){
         // Create an instance of the FeatureExtractor
         FeatureExtractor ft = new FeatureExtractor();
-        // Create the ARFFs
-        ft.noteCount(db);
-        ft.highestFret(db);
-        ft.noteCountAndHighestFret(db);
-        ft.fretCount(db);
-        ft.chordCount(db);
-        ft.rhythmFlagCount(db);
-        ft.advancedFretCount(db);
-        ft.totalNoteCount(db);
-        ft.numberOfBars(db);
-        ft.combined(db);
+        // Create all of the ARFFs in one pass over the database
+        ft.extract(db, FeatureSchema.ALL);
     }
     
     /**
      * A method that takes a file path as a String and reads the data into an
-     * Instances object.
+     * Instances object. ARFFs written by ArffUtility are read with the
+     * FastArffReader, any other ARFF with the weka reader, and files ending
+     * in FeatureStore.EXTENSION as feature stores.
      * @param path
      * @return i
      */
     public static Instances loadData(String path){
         Instances i = null;
+        long start = LOAD_TIMER.start();
         try{
-            FileReader fr = new FileReader(path);
-            i = new Instances(fr);
-            i.setClassIndex(i.numAttributes()-1);
+            i = path.endsWith(FeatureStore.EXTENSION)
+                    ? FeatureStore.readInstances(Paths.get(path))
+                    : FastArffReader.read(path).toInstances();
         }
-        catch(Exception e){
-            System.out.println("Unable to read file. Exception: " + e);
+        catch(IOException fastException){
+            try(FileReader fr = new FileReader(path)){
+                i = new Instances(fr);
+                i.setClassIndex(i.numAttributes()-1);
+            }
+            catch(Exception e){
+                System.out.println("Unable to read file. Exception: " + e);
+            }
         }
+        LOAD_TIMER.stop(start);
         return i;
     }
 }
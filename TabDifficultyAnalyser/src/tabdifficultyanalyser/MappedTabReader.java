@@ -0,0 +1,242 @@
+/*
+ * A class that reads tab files by memory-mapping them.
+ * Lines are parsed straight from the mapped bytes into TabEvents through a
+ * reused view of the buffer, so no String is made for any line. It reads
+ * single tab files and archives of many tabs in one file, where each tab is
+ * started by a header line:
+ *
+ *     @tab <grade> <name>
+ *
+ * followed by the lines of the tab file as they are. Bytes are read as
+ * ISO-8859-1, which gives the same characters as the tab grammar uses.
+ */
+package tabdifficultyanalyser;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class MappedTabReader {
+    private static final String ARCHIVE_HEADER = "@tab ";
+    // The largest part of a file mapped at once
+    private static final long MAX_CHUNK = 1L << 30;
+
+    /**
+     * Private constructor, MappedTabReader only has static methods
+     */
+    private MappedTabReader(){
+    }
+
+    /**
+     * Reads and parses a single tab file
+     * @param file
+     * @return the parsed Tab
+     * @throws IOException
+     */
+    public static TabEvents read(Path file) throws IOException{
+        final TabEvents.Builder builder = new TabEvents.Builder();
+        readLines(file, builder::addLine);
+        return builder.build();
+    }
+
+    /**
+     * Reads and parses every tab in an archive, passing each one on as it is
+     * finished. Lines before the first header are ignored.
+     * @param archive
+     * @param consumer receives each Tab with its grade and name
+     * @throws IOException
+     */
+    public static void readArchive(Path archive, Consumer<Tab> consumer)
+            throws IOException{
+        ArchiveParser parser = new ArchiveParser(consumer);
+        readLines(archive, parser);
+        parser.finish();
+    }
+
+    /**
+     * Maps a file, a chunk at a time, and passes each of its lines to a
+     * consumer. The line passed on is only valid until the consumer returns.
+     * @param file
+     * @param consumer
+     * @return the number of bytes read
+     * @throws IOException
+     */
+    static long readLines(Path file, Consumer<CharSequence> consumer)
+            throws IOException{
+        try(FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)){
+            long size = channel.size();
+            long position = 0;
+            ByteLine line = new ByteLine();
+
+            while(position < size){
+                long length = Math.min(MAX_CHUNK, size - position);
+                MappedByteBuffer buffer = channel.map(
+                        FileChannel.MapMode.READ_ONLY, position, length);
+                boolean last = position + length == size;
+                int end = last ? (int)length : lastLineEnd(buffer);
+                if(end < 0){
+                    throw new IOException("Line longer than " + MAX_CHUNK
+                            + " bytes in " + file);
+                }
+                line.setBuffer(buffer);
+
+                int start = 0;
+                for(int i = 0; i < end; i++){
+                    byte b = buffer.get(i);
+                    if(b == '\n' || b == '\r'){
+                        line.set(start, i);
+                        consumer.accept(line);
+                        start = i + 1;
+                    }
+                }
+                if(last && start < end){
+                    line.set(start, end);
+                    consumer.accept(line);
+                }
+                position += last ? length : end;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Finds the position after the last line break in a buffer
+     * @param buffer
+     * @return position, or -1 if there is no line break
+     */
+    private static int lastLineEnd(MappedByteBuffer buffer){
+        for(int i = buffer.limit()-1; i >= 0; i--){
+            byte b = buffer.get(i);
+            if(b == '\n' || b == '\r'){
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A view of one line of a mapped buffer as characters
+     */
+    private static class ByteLine implements CharSequence {
+        private MappedByteBuffer buffer;
+        private int start;
+        private int length;
+
+        /**
+         * Sets the buffer the line is read from
+         * @param buffer
+         */
+        void setBuffer(MappedByteBuffer buffer){
+            this.buffer = buffer;
+        }
+
+        /**
+         * Sets the position of the line in the buffer
+         * @param start the first byte of the line
+         * @param end the byte after the last byte of the line
+         */
+        void set(int start, int end){
+            this.start = start;
+            this.length = end - start;
+        }
+
+        @Override
+        public int length(){
+            return length;
+        }
+
+        @Override
+        public char charAt(int index){
+            if(index < 0 || index >= length){
+                throw new IndexOutOfBoundsException("index " + index);
+            }
+            return (char)(buffer.get(start + index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to){
+            return toString().substring(from, to);
+        }
+
+        @Override
+        public String toString(){
+            StringBuilder sb = new StringBuilder(length);
+            for(int i = 0; i < length; i++){
+                sb.append(charAt(i));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Splits the lines of an archive into tabs at each header line
+     */
+    private static class ArchiveParser implements Consumer<CharSequence> {
+        private final Consumer<Tab> consumer;
+        private TabEvents.Builder builder;
+        private int grade;
+        private String name;
+
+        /**
+         * Constructor for an ArchiveParser
+         * @param consumer receives each Tab as it is finished
+         */
+        ArchiveParser(Consumer<Tab> consumer){
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void accept(CharSequence line){
+            if(isHeader(line)){
+                finish();
+                String header = line.toString().substring(
+                        ARCHIVE_HEADER.length()).trim();
+                int space = header.indexOf(' ');
+                grade = Integer.parseInt(space < 0 ? header
+                        : header.substring(0, space));
+                name = space < 0 ? null : header.substring(space+1).trim();
+                builder = new TabEvents.Builder();
+            }
+            else if(builder != null){
+                builder.addLine(line);
+            }
+        }
+
+        /**
+         * Checks if a line starts a new tab
+         * @param line
+         * @return boolean
+         */
+        private static boolean isHeader(CharSequence line){
+            if(line.length() < ARCHIVE_HEADER.length()){
+                return false;
+            }
+            for(int i = 0; i < ARCHIVE_HEADER.length(); i++){
+                if(line.charAt(i) != ARCHIVE_HEADER.charAt(i)){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Passes on the tab currently being parsed, if there is one
+         */
+        void finish(){
+            if(builder != null){
+                Tab tab = new Tab(builder.build(), grade);
+                tab.setName(name);
+                consumer.accept(tab);
+                builder = null;
+            }
+        }
+    }
+}
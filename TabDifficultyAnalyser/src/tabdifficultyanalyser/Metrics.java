@@ -0,0 +1,337 @@
+/*
+ * A class that keeps counters and latency histograms for the stages of the
+ * pipeline, such as the number of tabs read, the ARFF rows written and the
+ * time taken to classify a Tab.
+ * Counters are LongAdders and histograms are fixed arrays of atomic buckets,
+ * so recording takes no locks and allocates nothing and can be left on. Each
+ * power of two of nanoseconds is split into 8 buckets, which keeps the
+ * percentiles within about 12% of the true value.
+ * The metrics can be printed as a text report or as JSON.
+ */
+package tabdifficultyanalyser;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public final class Metrics {
+    // Kept sorted by name so the reports list them in order
+    private static final Map<String, Counter> COUNTERS =
+            new ConcurrentSkipListMap<>();
+    private static final Map<String, Timer> TIMERS =
+            new ConcurrentSkipListMap<>();
+    private static volatile long started = System.nanoTime();
+
+    /**
+     * Private constructor, Metrics only has static methods
+     */
+    private Metrics(){
+    }
+
+    /**
+     * Returns the counter with a name, creating it the first time
+     * @param name
+     * @return counter
+     */
+    public static Counter counter(String name){
+        return COUNTERS.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * Returns the timer with a name, creating it the first time
+     * @param name
+     * @return timer
+     */
+    public static Timer timer(String name){
+        return TIMERS.computeIfAbsent(name, n -> new Timer());
+    }
+
+    /**
+     * Sets every counter and timer back to zero and restarts the clock rates
+     * are measured against
+     */
+    public static void reset(){
+        for(Counter counter : COUNTERS.values()){
+            counter.reset();
+        }
+        for(Timer timer : TIMERS.values()){
+            timer.reset();
+        }
+        started = System.nanoTime();
+    }
+
+    /**
+     * Returns the number of seconds since the metrics were started or reset
+     * @return seconds
+     */
+    public static double getElapsedSeconds(){
+        return (System.nanoTime() - started) / 1e9;
+    }
+
+    /**
+     * Returns a text report of every counter, with its rate per second since
+     * the metrics were started, and every timer
+     * @return report
+     */
+    public static String report(){
+        double elapsed = getElapsedSeconds();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "Metrics after %.3f s%n",
+                elapsed));
+        sb.append(String.format(Locale.ROOT, "%-36s %12s %14s%n",
+                "counter", "count", "per second"));
+        for(Map.Entry<String, Counter> e : COUNTERS.entrySet()){
+            long count = e.getValue().get();
+            sb.append(String.format(Locale.ROOT, "%-36s %12d %14.1f%n",
+                    e.getKey(), count, count / elapsed));
+        }
+        sb.append(String.format(Locale.ROOT,
+                "%-36s %9s %10s %10s %10s %10s %10s%n", "timer (ms)", "count",
+                "mean", "p50", "p90", "p99", "max"));
+        for(Map.Entry<String, Timer> e : TIMERS.entrySet()){
+            Timer timer = e.getValue();
+            sb.append(String.format(Locale.ROOT,
+                    "%-36s %9d %10.3f %10.3f %10.3f %10.3f %10.3f%n",
+                    e.getKey(), timer.getCount(), timer.getMean() / 1e6,
+                    timer.percentile(0.5) / 1e6, timer.percentile(0.9) / 1e6,
+                    timer.percentile(0.99) / 1e6, timer.getMax() / 1e6));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns every counter and timer as a JSON object
+     * @return json
+     */
+    public static String toJson(){
+        double elapsed = getElapsedSeconds();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "{\"elapsedSeconds\":%.3f",
+                elapsed));
+        sb.append(",\"counters\":{");
+        String separator = "";
+        for(Map.Entry<String, Counter> e : COUNTERS.entrySet()){
+            long count = e.getValue().get();
+            sb.append(separator).append(quote(e.getKey()));
+            sb.append(String.format(Locale.ROOT,
+                    ":{\"count\":%d,\"perSecond\":%.1f}", count,
+                    count / elapsed));
+            separator = ",";
+        }
+        sb.append("},\"timers\":{");
+        separator = "";
+        for(Map.Entry<String, Timer> e : TIMERS.entrySet()){
+            Timer timer = e.getValue();
+            sb.append(separator).append(quote(e.getKey()));
+            sb.append(String.format(Locale.ROOT, ":{\"count\":%d,"
+                    + "\"totalMs\":%.3f,\"meanMs\":%.3f,\"p50Ms\":%.3f,"
+                    + "\"p90Ms\":%.3f,\"p99Ms\":%.3f,\"maxMs\":%.3f}",
+                    timer.getCount(), timer.getTotal() / 1e6,
+                    timer.getMean() / 1e6, timer.percentile(0.5) / 1e6,
+                    timer.percentile(0.9) / 1e6, timer.percentile(0.99) / 1e6,
+                    timer.getMax() / 1e6));
+            separator = ",";
+        }
+        sb.append("}}");
+        return sb.toString();
+    }
+
+    /**
+     * Quotes a name as a JSON string
+     * @param name
+     * @return quoted name
+     */
+    private static String quote(String name){
+        return "\"" + name.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * A count of something that has happened, such as tabs read
+     */
+    public static class Counter {
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * Adds one to the counter
+         */
+        public void increment(){
+            count.increment();
+        }
+
+        /**
+         * Adds an amount to the counter
+         * @param amount
+         */
+        public void add(long amount){
+            count.add(amount);
+        }
+
+        /**
+         * Returns the count
+         * @return count
+         */
+        public long get(){
+            return count.sum();
+        }
+
+        /**
+         * Sets the counter back to zero
+         */
+        void reset(){
+            count.reset();
+        }
+    }
+
+    /**
+     * A histogram of how long something takes, such as classifying a Tab
+     */
+    public static class Timer {
+        // Bits of each power of two used to choose its bucket
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        /**
+         * Returns the time to pass to stop(), as a convenience
+         * @return the current time in nanoseconds
+         */
+        public long start(){
+            return System.nanoTime();
+        }
+
+        /**
+         * Records the time since start() was called
+         * @param start the value returned by start()
+         */
+        public void stop(long start){
+            record(System.nanoTime() - start);
+        }
+
+        /**
+         * Records a time
+         * @param nanos
+         */
+        public void record(long nanos){
+            if(nanos < 0){
+                nanos = 0;
+            }
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        /**
+         * Returns the bucket a time is counted in. Times under 8 ns have a
+         * bucket each, and each power of two above that has 8 buckets.
+         * @param nanos
+         * @return bucket
+         */
+        private static int bucket(long nanos){
+            if(nanos < SUB_BUCKETS){
+                return (int)nanos;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int)(nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS-1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * Returns the middle of the range of times counted in a bucket
+         * @param bucket
+         * @return nanos
+         */
+        private static double middle(int bucket){
+            if(bucket < SUB_BUCKETS){
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+            int sub = bucket % SUB_BUCKETS;
+            double width = Math.pow(2, exponent - SUB_BITS);
+            return (SUB_BUCKETS + sub) * width + width / 2;
+        }
+
+        /**
+         * Returns the number of times recorded
+         * @return count
+         */
+        public long getCount(){
+            return count.sum();
+        }
+
+        /**
+         * Returns the sum of the times recorded
+         * @return nanos
+         */
+        public long getTotal(){
+            return total.sum();
+        }
+
+        /**
+         * Returns the mean time
+         * @return nanos, or 0 if nothing has been recorded
+         */
+        public double getMean(){
+            long n = getCount();
+            return n == 0 ? 0 : (double)getTotal() / n;
+        }
+
+        /**
+         * Returns the longest time recorded
+         * @return nanos
+         */
+        public long getMax(){
+            return max.get();
+        }
+
+        /**
+         * Returns an estimate of a percentile of the times recorded
+         * @param fraction the percentile, from 0 to 1
+         * @return nanos, or 0 if nothing has been recorded
+         */
+        public double percentile(double fraction){
+            long[] counts = new long[BUCKETS];
+            long n = 0;
+            for(int i = 0; i < BUCKETS; i++){
+                counts[i] = buckets.get(i);
+                n += counts[i];
+            }
+            if(n == 0){
+                return 0;
+            }
+            long rank = Math.max(1, (long)Math.ceil(fraction * n));
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; i++){
+                seen += counts[i];
+                if(seen >= rank){
+                    return Math.min(middle(i), getMax());
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * Sets the timer back to zero
+         */
+        void reset(){
+            for(int i = 0; i < BUCKETS; i++){
+                buckets.set(i, 0);
+            }
+            count.reset();
+            total.reset();
+            max.reset();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * A class for running independent tasks over a range of positions on a
+ * fork-join pool of a given size.
+ * One pool is made for each size the first time it is used and kept for
+ * every later call, so reading or grading a batch at a time does not start
+ * and stop threads for each batch. The threads are daemons, which end on
+ * their own once they have been idle for a while, so the pools never need
+ * to be shut down.
+ */
+package tabdifficultyanalyser;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+final class Parallel {
+    // The pool of each parallelism, made the first time it is used
+    private static final Map<Integer, ForkJoinPool> POOLS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Private constructor, Parallel only has static methods
+     */
+    private Parallel(){
+    }
+
+    /**
+     * Returns the number of threads to use by default, one per core
+     * @return parallelism
+     */
+    static int defaultParallelism(){
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Runs a task for each position from 0 to count-1 and waits for them all
+     * to finish. Tasks must only write to their own position of any shared
+     * array. With a parallelism of 1 the tasks are run in order on the
+     * calling thread.
+     * @param parallelism the number of threads to use
+     * @param count the number of positions
+     * @param task the task to run for each position
+     */
+    static void forEach(int parallelism, int count, IntConsumer task){
+        if(parallelism <= 1 || count <= 1){
+            for(int i = 0; i < count; i++){
+                task.accept(i);
+            }
+            return;
+        }
+        ForkJoinPool pool = POOLS.computeIfAbsent(parallelism,
+                ForkJoinPool::new);
+        try{
+            pool.submit(() -> IntStream.range(0, count).parallel()
+                    .forEach(task)).get();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+        catch(ExecutionException e){
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException)cause;
+            }
+            if(cause instanceof Error){
+                throw (Error)cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
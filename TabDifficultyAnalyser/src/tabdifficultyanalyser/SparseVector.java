@@ -0,0 +1,113 @@
+/*
+ * A class that holds a row of features as only the columns that are not
+ * zero. Most of the frets in a fret count matrix are never played, so the
+ * rows of the matrix feature sets are mostly zeros and are far smaller kept
+ * this way. A SparseVector can be cleared and filled again for each row.
+ */
+package tabdifficultyanalyser;
+
+import java.util.Arrays;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class SparseVector {
+    private int[] indices;
+    private int[] values;
+    private int count;
+
+    /**
+     * Default constructor for a SparseVector
+     */
+    public SparseVector(){
+        this(16);
+    }
+
+    /**
+     * Constructor for a SparseVector with room for a number of values before
+     * it has to grow
+     * @param capacity
+     */
+    public SparseVector(int capacity){
+        indices = new int[Math.max(capacity, 1)];
+        values = new int[indices.length];
+    }
+
+    /**
+     * Removes every value
+     */
+    public void clear(){
+        count = 0;
+    }
+
+    /**
+     * Sets the value of a column, if it is not zero. Columns must be set in
+     * increasing order.
+     * @param index the column
+     * @param value
+     */
+    public void add(int index, int value){
+        if(value == 0){
+            return;
+        }
+        if(count == indices.length){
+            indices = Arrays.copyOf(indices, count*2);
+            values = Arrays.copyOf(values, count*2);
+        }
+        indices[count] = index;
+        values[count] = value;
+        count++;
+    }
+
+    /**
+     * Returns the number of columns that are not zero
+     * @return count
+     */
+    public int getCount(){
+        return count;
+    }
+
+    /**
+     * Returns the column of one of the values
+     * @param i from 0 to getCount()-1
+     * @return index
+     */
+    public int getIndex(int i){
+        return indices[i];
+    }
+
+    /**
+     * Returns one of the values
+     * @param i from 0 to getCount()-1
+     * @return value
+     */
+    public int getValue(int i){
+        return values[i];
+    }
+
+    /**
+     * Returns the vector with every column, including the zeros
+     * @param width the number of columns
+     * @return row
+     */
+    public int[] toDense(int width){
+        int[] row = new int[width];
+        for(int i = 0; i < count; i++){
+            row[indices[i]] = values[i];
+        }
+        return row;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder("{");
+        for(int i = 0; i < count; i++){
+            if(i > 0){
+                sb.append(',');
+            }
+            sb.append(indices[i]).append(' ').append(values[i]);
+        }
+        return sb.append('}').toString();
+    }
+}
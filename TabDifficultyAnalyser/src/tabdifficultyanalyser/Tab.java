@@ -4,6 +4,9 @@
  */
 package tabdifficultyanalyser;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 
 /**
@@ -11,12 +14,22 @@ import java.util.ArrayList;
  * @author Joshua Foster
  */
 public class Tab {
+    private static final Metrics.Timer PARSE_TIMER = Metrics.timer("parse");
+    private static final Metrics.Timer FEATURE_TIMER =
+            Metrics.timer("features");
+    private static final Metrics.Counter NOTES = Metrics.counter("notes");
     private final ArrayList<String> instances;
     private int grade;
-    
-    private static final String[] CHROMATIC_SCALE = {"a","a#","b","c",
-                                                    "c#","d","d#","e",
-                                                    "f","f#","g","g#"};
+    // Where the Tab was read from, such as its file path
+    private String name;
+    // The tuning used to find the note of each fret
+    private Tuning tuning = Tuning.RENAISSANCE;
+    // The parsed form of the instances, found the first time it is asked for
+    private TabEvents events;
+    // The features of the Tab, found the first time they are asked for
+    private TabFeatureVector featureVector;
+    // Whether the Tab was made from its features alone
+    private boolean featuresOnly;
     
     /**
      * Default constructor for a Tab
@@ -50,22 +63,99 @@ public class Tab {
     }
     
     /**
-     * Gets the list of instances in a Tab
+     * A constructor for a Tab that has already been parsed. The Tab does not
+     * keep its instances; if it is given the name of its file, getInstances()
+     * reads them from the file again, otherwise it returns an empty list and
+     * no instance can be added.
+     * @param events the parsed Tab
+     * @param grade 
+     */
+    public Tab(TabEvents events, int grade){
+        this.instances = new ArrayList<>();
+        this.events = events;
+        this.grade = grade;
+    }
+    
+    /**
+     * A constructor for a Tab whose features are already known, such as from
+     * a FeatureCache. The Tab has no instances or events until they are asked
+     * for, or its tuning is changed, when they are read from the file it is
+     * named after.
+     * @param featureVector the features of the Tab
+     * @param tuning the tuning the features were found with
+     * @param grade 
+     */
+    public Tab(TabFeatureVector featureVector, Tuning tuning, int grade){
+        this.instances = new ArrayList<>();
+        this.featureVector = featureVector;
+        this.tuning = tuning;
+        this.featuresOnly = true;
+        this.grade = grade;
+    }
+    
+    /**
+     * Gets the list of instances in a Tab. A Tab that was read from a file
+     * without keeping its instances reads them from the file again.
      * @return instances
      */
     public ArrayList<String> getInstances(){
+        loadInstances();
         return instances;
     }
     
     /**
-     * Adds an instance to the list of instances
+     * Reads the instances of a Tab from its file, if it was read without
+     * keeping them and the file is still there
+     */
+    private void loadInstances(){
+        if(instances.isEmpty() && (events != null || featuresOnly)
+                && name != null && Files.isRegularFile(Paths.get(name))){
+            ArrayList<String> lines = TabDatabase.tabReader(name);
+            if(lines != null){
+                instances.addAll(lines);
+            }
+        }
+    }
+    
+    /**
+     * Adds an instance to the list of instances. A Tab that was parsed
+     * without keeping its instances must be able to read them from its file
+     * again, as they cannot be rebuilt from the parsed form.
      * @param instance a musical instance
      * @return boolean
+     * @throws IllegalStateException if the Tab was parsed, or made from its
+     * features, and its instances cannot be read again
      */
     public boolean addInstance(String instance){
+        loadInstances();
+        if(instances.isEmpty() && (featuresOnly
+                || (events != null && events.getLineCount() > 0))){
+            throw new IllegalStateException("Tab " + name
+                    + " was read without its instances, which cannot be"
+                    + " read again");
+        }
+        events = null;
+        featureVector = null;
+        featuresOnly = false;
         return instances.add(instance);
     }
     
+    /**
+     * Returns where the Tab was read from, such as its file path
+     * @return name, or null if it is not known
+     */
+    public String getName(){
+        return name;
+    }
+    
+    /**
+     * Sets where the Tab was read from
+     * @param name 
+     */
+    public void setName(String name){
+        this.name = name;
+    }
+    
     /**
      * Return the grade of a piece
      * @return grade
@@ -75,60 +165,113 @@ public class Tab {
     }
     
     /**
-     * A simple method that takes an instance of a TabDatabase and analyses
-     * the note counts for each piece of lute tablature. The counts are stored
-     * in noteCount.
-     * It is a simple counter for the prototype as it simply checks which notes 
-     * are used in a piece and their frequency. It passes the notes to the
-     * private void method checkNote().
+     * Returns the parsed form of a Tab. The instances are parsed the first
+     * time this is called and kept until an instance is added. A Tab made
+     * from its features reads them from its file.
+     * @return events
+     * @throws IllegalStateException if a Tab made from its features cannot
+     * read its file
+     */
+    public TabEvents getEvents(){
+        if(featuresOnly){
+            readEvents();
+        }
+        if(events == null){
+            long start = PARSE_TIMER.start();
+            events = TabEvents.parse(instances);
+            PARSE_TIMER.stop(start);
+        }
+        return events;
+    }
+    
+    /**
+     * Returns the features of a Tab. They are all found in a single pass over
+     * the parsed events the first time this is called and kept until an
+     * instance is added.
+     * @return featureVector
+     */
+    public TabFeatureVector getFeatureVector(){
+        if(featureVector == null){
+            TabEvents parsed = getEvents();
+            long start = FEATURE_TIMER.start();
+            featureVector = TabFeatureVector.extract(parsed, tuning);
+            FEATURE_TIMER.stop(start);
+            NOTES.add(featureVector.getTotalNoteCount());
+        }
+        return featureVector;
+    }
+    
+    /**
+     * Returns the columns of a feature set that are not zero for this Tab,
+     * which for the fret count matrices is only a small part of the row
+     * @param schema the feature set
+     * @return features
+     */
+    public SparseVector getSparseFeatures(FeatureSchema schema){
+        return schema.sparseValues(getFeatureVector());
+    }
+    
+    /**
+     * Returns the tuning used to find the notes of a Tab
+     * @return tuning
+     */
+    public Tuning getTuning(){
+        return tuning;
+    }
+    
+    /**
+     * Sets the tuning used to find the notes of a Tab, for pieces written for
+     * a lute that is not in the renaissance tuning
+     * @param tuning 
+     */
+    public void setTuning(Tuning tuning){
+        if(tuning == this.tuning){
+            return;
+        }
+        if(featuresOnly){
+            // The features have to be found again, from the file
+            readEvents();
+        }
+        this.tuning = tuning;
+        featureVector = null;
+    }
+    
+    /**
+     * Reads the events of a Tab made from its features from the file it is
+     * named after
+     */
+    private void readEvents(){
+        if(name == null){
+            throw new IllegalStateException(
+                    "Tab was made from its features and has no file");
+        }
+        long start = PARSE_TIMER.start();
+        try{
+            events = MappedTabReader.read(Paths.get(name));
+        }
+        catch(IOException e){
+            throw new IllegalStateException("Unable to read " + name, e);
+        }
+        PARSE_TIMER.stop(start);
+        featuresOnly = false;
+    }
+    
+    /**
+     * Returns the count of each note used in a Tab. The note of each fret and
+     * course played is looked up in the tuning of the Tab.
      * @return noteCount
      */
     public int[] getNoteCount(){
         // note order; A,A#,B,C,C#,D,D#,E,F,F#,G,G#
-        int[] noteCount = new int[12]; 
-        // Scan through each line of the Tab
-        for(String instance : instances){
-            // Checks that the line starts with a rhythm flag
-            if(isRhythmFlag(instance)){
-                int course = 1; // course refers to pair of strings
-                for(int j = 1; j < instance.length(); j++){
-                    if(instance.charAt(j)==' ' || instance.charAt(j)=='/'){
-                        course++;
-                    }
-                    else if(isValidNote(instance, j) && course <= 10){
-                        int pos = checkNote(instance.charAt(j), course);
-                        noteCount[pos]++;
-                        course++;
-                    }
-                }
-            }
-        }
-        return noteCount;
+        return getFeatureVector().getNoteCount();
     }
     
     /**
-     * Finds the highest note played in a Tab and writes to an arff
+     * Finds the highest note played in a Tab
      * @return highestFret
      */
     public int getHighestFret(){
-        int highestFret = 0;
-        // Go through each line (or instance) of the Tab
-        for(String instance : instances){
-            // Checks that the line starts with a rhythm flag
-            if(isRhythmFlag(instance)){
-                for(int j = 1; j < instance.length(); j++){
-                    if(isValidNote(instance, j)){
-                        char c = Character.toLowerCase(instance.charAt(j));
-                        int asciiValue = (int)c;
-                        int fret = asciiValue-97;
-                        if(fret > highestFret){
-                            highestFret = fret;
-                        }
-                    }
-                }
-            }
-        }
-        return highestFret;
+        return getFeatureVector().getHighestFret();
     }
     
     /**
@@ -137,54 +280,15 @@ public class Tab {
      * @return fretCount
      */
     public int[][] getFretCount(){
-        int[][] fretCount = new int[10][16];
-        // Scan through each line of the Tab
-        for(String instance : instances){
-            // Checks that the line starts with a rhythm flag
-            if(isRhythmFlag(instance)){  
-                int course = 1; // course refers to pair of strings
-                for(int j = 1; j < instance.length(); j++){
-                    // Checks course
-                    if(instance.charAt(j) == ' ' || instance.charAt(j) == '/'){
-                        course++;
-                    }
-                    // Checks for letter indicating fret
-                    else if(isValidNote(instance, j) && course <= 10){
-                        char c = Character.toLowerCase(instance.charAt(j));
-                        int asciiValue = (int)c;
-                        int fret = asciiValue - 97;
-                        fretCount[course-1][fret]++;
-                        course++;
-                    }
-                }
-            }
-        }
-        return fretCount;
+        return getFeatureVector().getFretCount();
     }
     
     /**
-     * Finds the number of instances in each Tab that contain more than 3 notes
-     * and writes to an arff
+     * Finds the number of instances in each Tab that contain 3 or more notes
      * @return chordCount
      */
     public int getChordCount(){
-        int chordCount = 0;
-        // Go through each line (or instance) of the Tab
-        for(String instance : instances){
-            // Checks that the line starts with a rhythm flag
-            if(isRhythmFlag(instance)){
-                int numNotesInInstance = 0;
-                for(int j = 1; j < instance.length(); j++){
-                    if(isValidNote(instance, j)){
-                        numNotesInInstance++;
-                    }
-                }
-                if(numNotesInInstance >= 3){
-                    chordCount++;
-                }
-            }
-        }
-        return chordCount;
+        return getFeatureVector().getChordCount();
     }
     
     /**
@@ -192,30 +296,7 @@ public class Tab {
      * @return rhythmFlagCount
      */
     public int[] getRhythmFlagCount(){
-        int[] rhythmFlagCount = new int[10];
-        // previousFlag used to check flag for 'x' which indicates grouping
-        char previousFlag = ' ';
-        // Scan through each line of the Tab
-        for(String instance : instances){
-            // Checks that the line starts with a rhythm flag
-            if(isRhythmFlag(instance)){  
-                if(Character.isDigit(instance.charAt(0))){
-                    checkRhythmFlag(rhythmFlagCount, instance.charAt(0));
-                    previousFlag = instance.charAt(0);
-                }
-                // currently a problem with a few inputs here as previousFlag
-                // is considered as ' ' very occasionally 
-                else if(instance.charAt(0) == 'x'){
-                    checkRhythmFlag(rhythmFlagCount, previousFlag);
-                }
-                else if(instance.charAt(0) == '#' &&
-                        Character.isDigit(instance.charAt(1))){
-                    checkRhythmFlag(rhythmFlagCount, instance.charAt(1));
-                    previousFlag = instance.charAt(1);
-                }
-            }
-        }
-        return rhythmFlagCount;
+        return getFeatureVector().getRhythmFlagCount();
     }
     
     /**
@@ -224,67 +305,26 @@ public class Tab {
      * @return 
      */
     public int[][] getAdvancedFretCount(){
-        Tab current = new Tab(); 
-        Tab mostNotes = new Tab();
-        // Extract a bar
-        for(int j = 0; j < instances.size(); j++){
-            String instance = instances.get(j);
-
-            if(isRhythmFlag(instance)){
-                current.addInstance(instance);
-            }
-            else if(instance.charAt(0) == 'b'){
-                if(mostNotes.getTotalNoteCount() < current.getTotalNoteCount()){
-                    mostNotes = current;
-                }
-                current = new Tab();
-            }
-        }
-        // Get the Fret Count for the bar with the highest number
-        // of notes
-        return mostNotes.getFretCount();
+        return getFeatureVector().getAdvancedFretCount();
     }
     
-    
     /**
      * Returns the number of notes played in a Tab
      * @return count
      */
     public int getTotalNoteCount(){
-        int count = 0;
-        for(String instance : instances){
-            // Check that instance starts with a rhythm flag
-            if(isRhythmFlag(instance)){
-                // Loop through each course (pair of lute strings)
-                for(int j = 1; j < instance.length(); j++){
-                    // Check that current note is a valid note
-                    if(isValidNote(instance, j)){
-                        count++;
-                    }
-                }
-            }
-        }
-        return count;
+        return getFeatureVector().getTotalNoteCount();
     }
     
     /**
-     * Returns the number of bars in a piece
+     * Returns the number of bars in a piece. A bar is counted for each "b"
+     * (bar line) that is not followed by another "b" (indicating the start
+     * of a new musical phrase) and is not two instances before an "e" which
+     * indicates the end of a Tab file
      * @return numberOfBars
      */
     public int getBarCount(){
-        int numberOfBars = 0;
-        for(int i = 0; i < instances.size()-2; i++){
-            // Check that instance starts with a "b" (bar line) and the next
-            // instance is not also "b" (indicating the start of a new musical
-            // phrase, and finally that the instance two instances along is not
-            // "e" which indicates the end of a Tab file
-            if(instances.get(i).equals("b") &&
-                    !instances.get(i+1).equals("b") &&
-                    !instances.get(i+2).equals("e")){
-                numberOfBars++;
-            }
-        }
-        return numberOfBars;
+        return getFeatureVector().getBarCount();
     }
     
     /**
@@ -293,7 +333,7 @@ public class Tab {
      * @param instance
      * @return boolean
      */
-    private static boolean isRhythmFlag(String instance){
+    static boolean isRhythmFlag(CharSequence instance){
         return Character.isDigit(instance.charAt(0)) || 
                 instance.charAt(0) == 'x' || 
                 instance.charAt(0) == '#' ||
@@ -308,7 +348,7 @@ public class Tab {
      * @param j the position that the note is being played (course)
      * @return boolean
      */
-    private static boolean isValidNote(String instance, int j){
+    static boolean isValidNote(CharSequence instance, int j){
         return Character.isLetter(instance.charAt(j)) &&
                 instance.charAt(j) != 'X' &&
                 instance.charAt(j) != 'U' &&
@@ -317,115 +357,37 @@ public class Tab {
     }
     
     /**
-     * A method that checks the given fret and course so it can return the 
-     * CHROMATIC_SCALE variable array position of the note being played.
-     * @param c the current fret in the instance to be checked
-     * @param course the current course (pair of lute strings)
-     * @return note position in CHROMATIC_SCALE 
-     */
-    private static int checkNote(char c, int course){
-        c = Character.toLowerCase(c);
-        int asciiValue = (int)c;
-        // Find the fret
-        int fret = asciiValue-97;                      
-        String open; // used to indicate the open course note 
-        int i = 0;   // used to indicate the open course note position in the
-                     // constant CHROMATIC_SCALE String array
-        switch(course){
-            case 1:
-                open = "g";
-                while(!open.equals(CHROMATIC_SCALE[i])) i++;
-                break;
-            case 2:
-                open = "d";
-                while(!open.equals(CHROMATIC_SCALE[i])) i++;
-                break;
-            case 3:
-                open = "a";
-                while(!open.equals(CHROMATIC_SCALE[i])) i++;
-                break;
-            case 4:
-                open = "f";
-                while(!open.equals(CHROMATIC_SCALE[i])) i++;
-                break;
-            case 5:
-                open = "c";
-                while(!open.equals(CHROMATIC_SCALE[i])) i++;
-                break;
-            case 6:
-                open = "g";
-                while(!open.equals(CHROMATIC_SCALE[i])) i++;
-                break;
-            case 7:
-                open = "f";
-                while(!open.equals(CHROMATIC_SCALE[i])) i++;
-                break;
-            case 8:
-                open = "d#";
-                while(!open.equals(CHROMATIC_SCALE[i])) i++;
-                break;
-            case 9:
-                open = "d";
-                while(!open.equals(CHROMATIC_SCALE[i])) i++;
-                break;
-            case 10:
-                open = "c";
-                while(!open.equals(CHROMATIC_SCALE[i])) i++;
-                break;
-            default:
-                System.out.println("There was a problem");
-                break;
-        }
-        // note position in the CHROMATIC_SCALE array plus the fret. 
-        // Modulus 12 (number of notes in the chromatic scale) to give the note
-        // played in the CHROMATIC_SCALE
-        return (i + fret) % 12;
-    }
-    
-    /**
-     * Checks which rhythm flag is being used in an instance and increments the
-     * corresponding value of rhythmFlagCount
+     * Checks which rhythm flag is being used in an instance and returns the
+     * corresponding position in rhythmFlagCount
      * @param c a character representing the rhythmFlag
-     * @return true or false
+     * @return position in rhythmFlagCount, or -1 if the flag is not counted
      */
-    private boolean checkRhythmFlag(int[] rhythmFlagCount, char c){
-        
+    static int rhythmFlagIndex(char c){
         switch(c){
             case 'W':
-                rhythmFlagCount[0]++;
-                break;
+                return 0;
             case 'w':
-                rhythmFlagCount[1]++;
-                break;
+                return 1;
             case '0':
-                rhythmFlagCount[2]++;
-                break;
+                return 2;
             case '1':
-                rhythmFlagCount[3]++;
-                break;
+                return 3;
             case '2':
-                rhythmFlagCount[4]++;
-                break;
+                return 4;
             case '3':
-                rhythmFlagCount[5]++;
-                break;
+                return 5;
             case '4':
-                rhythmFlagCount[6]++;
-                break;
+                return 6;
             case '5':
-                rhythmFlagCount[7]++;
-                break;
+                return 7;
             case '6':
-                rhythmFlagCount[8]++;
-                break;
+                return 8;
             case 't':
-                rhythmFlagCount[9]++;
-                break;
+                return 9;
             default:
                 //System.out.println("Invalid input: " + c);
-                return false;
+                return -1;
         }
-        return true;
     }
     
     
@@ -433,7 +395,7 @@ public class Tab {
         StringBuilder sb = new StringBuilder();
         sb.append("Grade: ");
         sb.append(getGrade()).append("\n");
-        for(String s : instances){
+        for(String s : getInstances()){
             sb.append(s).append("\n");
         }
         return sb.toString();
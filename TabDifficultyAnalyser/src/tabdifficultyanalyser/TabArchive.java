@@ -0,0 +1,256 @@
+/*
+ * A class that packs a whole corpus of tabs into a single binary file.
+ * Each tab is stored already parsed, as the arrays of its TabEvents with its
+ * grade and name, and an index at the start of the file holds the offset of
+ * every tab. Opening an archive maps the file once, so loading a tab is a
+ * lookup in the index and a copy of its arrays, without touching the
+ * filesystem for each tab or parsing any text.
+ *
+ * Layout (big-endian):
+ *     int magic, int version, int tabCount
+ *     long offset of each tab
+ *     for each tab: int grade, int nameLength, byte[] name (UTF-8),
+ *                   int lineCount, byte[] lineKinds,
+ *                   int eventCount, byte[] flags, int[eventCount+1] noteStart,
+ *                   int noteCount, byte[2*noteCount] notes
+ */
+package tabdifficultyanalyser;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class TabArchive implements Closeable {
+    private static final int MAGIC = 0x54414241; // "TABA"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    private final FileChannel channel;
+    // The whole archive, or null if it is too large to map at once
+    private final ByteBuffer mapped;
+    private final long[] offsets;
+
+    /**
+     * Constructor for a TabArchive, used by open()
+     * @param channel
+     * @param mapped
+     * @param offsets
+     */
+    private TabArchive(FileChannel channel, ByteBuffer mapped, long[] offsets){
+        this.channel = channel;
+        this.mapped = mapped;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Writes every Tab of a TabDatabase to an archive
+     * @param tabDatabase
+     * @param archive
+     * @throws IOException
+     */
+    public static void pack(TabDatabase tabDatabase, Path archive)
+            throws IOException{
+        int count = tabDatabase.getSize();
+        byte[][] names = new byte[count][];
+        // Work out where each tab will start so the index can go first
+        long offset = HEADER_SIZE + 8L*count;
+        long[] offsets = new long[count];
+        for(int i = 0; i < count; i++){
+            Tab tab = tabDatabase.getTab(i);
+            String name = tab.getName() == null ? "" : tab.getName();
+            names[i] = name.getBytes(StandardCharsets.UTF_8);
+            offsets[i] = offset;
+            offset += recordSize(tab.getEvents(), names[i].length);
+        }
+
+        try(DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(archive),
+                        1 << 16))){
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            for(long o : offsets){
+                out.writeLong(o);
+            }
+            for(int i = 0; i < count; i++){
+                Tab tab = tabDatabase.getTab(i);
+                TabEvents events = tab.getEvents();
+                out.writeInt(tab.getGrade());
+                out.writeInt(names[i].length);
+                out.write(names[i]);
+                out.writeInt(events.getLineCount());
+                out.write(events.lineKindArray());
+                out.writeInt(events.getEventCount());
+                out.write(events.flagArray());
+                for(int start : events.noteStartArray()){
+                    out.writeInt(start);
+                }
+                out.writeInt(events.getNoteCount());
+                out.write(events.noteArray());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes a tab takes up in the archive
+     * @param events
+     * @param nameLength
+     * @return size
+     */
+    private static long recordSize(TabEvents events, int nameLength){
+        return 4 + 4 + nameLength
+                + 4 + events.getLineCount()
+                + 4 + events.getEventCount() + 4L*(events.getEventCount()+1)
+                + 4 + 2L*events.getNoteCount();
+    }
+
+    /**
+     * Opens an archive, mapping the whole file if it is under 2 GB
+     * @param archive
+     * @return the opened archive
+     * @throws IOException
+     */
+    public static TabArchive open(Path archive) throws IOException{
+        FileChannel channel = FileChannel.open(archive,
+                StandardOpenOption.READ);
+        try{
+            long size = channel.size();
+            ByteBuffer mapped = null;
+            ByteBuffer header;
+            if(size <= Integer.MAX_VALUE){
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                header = mapped.duplicate();
+            }
+            else{
+                header = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(channel, header, 0);
+            }
+            if(size < HEADER_SIZE || header.getInt() != MAGIC){
+                throw new IOException(archive + " is not a tab archive");
+            }
+            if(header.getInt() != VERSION){
+                throw new IOException(archive + " has an unknown version");
+            }
+            int count = header.getInt();
+            if(mapped == null){
+                header = ByteBuffer.allocate(8*count);
+                readFully(channel, header, HEADER_SIZE);
+            }
+            long[] offsets = new long[count];
+            for(int i = 0; i < count; i++){
+                offsets[i] = header.getLong();
+            }
+            return new TabArchive(channel, mapped, offsets);
+        }
+        catch(IOException | RuntimeException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Fills a buffer from a position of a channel
+     * @param channel
+     * @param buffer
+     * @param position
+     * @throws IOException
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer,
+            long position) throws IOException{
+        while(buffer.hasRemaining()){
+            int read = channel.read(buffer, position);
+            if(read < 0){
+                throw new IOException("Unexpected end of tab archive");
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Returns the number of tabs in the archive
+     * @return size
+     */
+    public int getSize(){
+        return offsets.length;
+    }
+
+    /**
+     * Loads a Tab from the archive
+     * @param position the position of the Tab in the archive
+     * @return tab
+     * @throws IOException
+     */
+    public Tab getTab(int position) throws IOException{
+        ByteBuffer record;
+        if(mapped != null){
+            record = mapped.duplicate();
+            record.position((int)offsets[position]);
+        }
+        else{
+            long end = position+1 < offsets.length ? offsets[position+1]
+                    : channel.size();
+            record = ByteBuffer.allocate((int)(end - offsets[position]));
+            readFully(channel, record, offsets[position]);
+        }
+
+        int grade = record.getInt();
+        byte[] name = new byte[record.getInt()];
+        record.get(name);
+        byte[] lineKinds = new byte[record.getInt()];
+        record.get(lineKinds);
+        int eventCount = record.getInt();
+        byte[] flags = new byte[eventCount];
+        record.get(flags);
+        int[] noteStart = new int[eventCount+1];
+        record.asIntBuffer().get(noteStart);
+        record.position(record.position() + 4*noteStart.length);
+        byte[] notes = new byte[2*record.getInt()];
+        record.get(notes);
+
+        Tab tab = new Tab(new TabEvents(lineKinds, flags, noteStart, notes),
+                grade);
+        if(name.length > 0){
+            tab.setName(new String(name, StandardCharsets.UTF_8));
+        }
+        return tab;
+    }
+
+    /**
+     * Closes the archive
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException{
+        channel.close();
+    }
+
+    /**
+     * Packs the graded tabs under a root folder into an archive
+     * @param args the root folder and the archive to write
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception{
+        if(args.length != 2){
+            System.out.println("Usage: TabArchive <rootFolder> <archive>");
+            return;
+        }
+        TabDatabase db = new TabDatabase();
+        db.setMemoryMapped(true);
+        db.readInTabDatabase(args[0]);
+        pack(db, Paths.get(args[1]));
+        System.out.println("Packed " + db.getSize() + " tabs into " + args[1]);
+    }
+}
@@ -1,28 +1,73 @@
 /*
  * A class that represents a list of all the input Pieces
+ * The pieces are read and parsed in parallel, but are kept in the order their
+ * files were found. Each Tab keeps only its parsed events, not its lines.
+ * Files can also be memory-mapped and parsed without making a String for
+ * each line, or streamed without holding the whole corpus in memory.
  */
 package tabdifficultyanalyser;
 
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  *
  * @author Joshua Foster
  */
 public class TabDatabase {
-    private ArrayList<Tab> tabDatabase;
+    private static final Metrics.Timer DATABASE_TIMER =
+            Metrics.timer("readInTabDatabase");
+    private static final Metrics.Timer READ_TIMER = Metrics.timer("read");
+    private static final Metrics.Counter TABS_READ =
+            Metrics.counter("tabs.read");
+    private static final Metrics.Counter TABS_CACHED =
+            Metrics.counter("tabs.cached");
+    private static final Metrics.Counter BYTES_READ =
+            Metrics.counter("bytes.read");
+    private final List<Tab> tabDatabase;
+    // The number of files read and parsed at the same time
+    private int parallelism = Parallel.defaultParallelism();
+    // Whether files are memory-mapped rather than read a line at a time
+    private boolean memoryMapped;
+    // The features of files read before, or null to read every file
+    private FeatureCache featureCache;
+    // The tuning used to find the notes of every Tab read
+    private Tuning tuning = Tuning.RENAISSANCE;
+    // The number of files read per thread in each batch of a stream
+    private static final int STREAM_BATCH = 32;
     
     /**
      * Default constructor for a TabDatabase
      */
     public TabDatabase(){
-        tabDatabase = new ArrayList<>();
+        tabDatabase = Collections.synchronizedList(new ArrayList<>());
+    }
+    
+    /**
+     * Sets the number of files read and parsed at the same time. A
+     * parallelism of 1 reads the files one after another.
+     * @param parallelism 
+     */
+    public void setParallelism(int parallelism){
+        this.parallelism = parallelism;
     }
     
     /**
@@ -50,7 +95,8 @@ public class TabDatabase {
     }
     
     /**
-     * Print the contents of a Tab at the specified place in the database
+     * Print the contents of a Tab at the specified place in the database.
+     * The lines of a Tab read from a file are read from it again.
      * @param position 
      */
     public void printPiece(int position){
@@ -71,44 +117,290 @@ public class TabDatabase {
     }
     
     /**
-     * Reads a file path and records each tab file as a Tab along with the grade
+     * Sets whether files are memory-mapped and parsed straight into
+     * TabEvents, without making a String for each line
+     * @param memoryMapped 
+     */
+    public void setMemoryMapped(boolean memoryMapped){
+        this.memoryMapped = memoryMapped;
+    }
+    
+    /**
+     * Sets a cache of the features of files read before. Files that have not
+     * changed since are not read again, and their Tab is made from the cached
+     * features alone. The cache is saved after each readInTabDatabase().
+     * @param featureCache the cache, or null to read every file
+     */
+    public void setFeatureCache(FeatureCache featureCache){
+        this.featureCache = featureCache;
+    }
+    
+    /**
+     * Sets the tuning used to find the notes of every Tab in the database,
+     * and of every Tab read after
+     * @param tuning 
+     */
+    public void setTuning(Tuning tuning){
+        this.tuning = tuning;
+        synchronized(tabDatabase){
+            for(Tab tab : tabDatabase){
+                tab.setTuning(tuning);
+            }
+        }
+    }
+    
+    /**
+     * Reads a file path and records each tab file as a Tab along with the
+     * grade. The files are read and parsed in parallel and then added to the
+     * database in the order they were found. Files that cannot be read are
+     * left out.
      * @param rootFolder
      * @throws Exception 
      */
     public void readInTabDatabase(String rootFolder) throws Exception{
+        long start = DATABASE_TIMER.start();
         // Create a list of all the pathways for each piece
         final ArrayList<String> pathList = walkDirTree(rootFolder);
-        for(String path : pathList){
-            tabDatabase.add(new Tab(tabReader(path), getGrade(path)));
+        final Tab[] tabs = new Tab[pathList.size()];
+        Parallel.forEach(parallelism, tabs.length, i ->
+                tabs[i] = readCachedTab(pathList.get(i)));
+        for(Tab tab : tabs){
+            if(tab != null){
+                tabDatabase.add(tab);
+            }
+        }
+        saveFeatureCache();
+        DATABASE_TIMER.stop(start);
+    }
+    
+    /**
+     * Returns a stream of the tab files under a root folder, read as they are
+     * asked for rather than held in the database. Files are read and parsed
+     * in parallel a batch at a time, and the next batch is only read once the
+     * last one has been used, so the memory used does not depend on the size
+     * of the corpus, other than the index of a feature cache if one is set.
+     * Files that cannot be read are left out. The stream must be closed,
+     * which also saves the feature cache if one is set.
+     * @param rootFolder
+     * @return tabs, in the order their files are found
+     * @throws IOException 
+     */
+    public Stream<Tab> stream(String rootFolder) throws IOException{
+        return stream(rootFolder, path -> true);
+    }
+    
+    /**
+     * Returns a stream of the tab files under a root folder, as stream(),
+     * but only reading the files whose paths pass a filter
+     * @param rootFolder
+     * @param filter given the path of each tab file, before it is read
+     * @return tabs, in the order their files are found
+     * @throws IOException 
+     */
+    public Stream<Tab> stream(String rootFolder, Predicate<String> filter)
+            throws IOException{
+        final Stream<Path> paths = Files.walk(Paths.get(rootFolder));
+        final Iterator<String> pathIterator = paths.map(Path::toString)
+                .filter(path -> path.contains(".tab") && filter.test(path))
+                .iterator();
+        final int batchSize = Math.max(parallelism, 1) * STREAM_BATCH;
+
+        Iterator<Tab> tabIterator = new Iterator<Tab>(){
+            private final String[] batchPaths = new String[batchSize];
+            private final Tab[] batch = new Tab[batchSize];
+            private int size;
+            private int next;
+
+            @Override
+            public boolean hasNext(){
+                if(next == size){
+                    readBatch();
+                }
+                return next < size;
+            }
+
+            @Override
+            public Tab next(){
+                if(!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                Tab tab = batch[next];
+                // Release the Tab as soon as it has been handed on
+                batch[next++] = null;
+                return tab;
+            }
+
+            /**
+             * Reads the next batch of files in parallel, until one of them
+             * can be read or there are no more
+             */
+            private void readBatch(){
+                size = 0;
+                next = 0;
+                while(size == 0 && pathIterator.hasNext()){
+                    int count = 0;
+                    while(count < batchSize && pathIterator.hasNext()){
+                        batchPaths[count++] = pathIterator.next();
+                    }
+                    Parallel.forEach(parallelism, count, i ->
+                            batch[i] = readCachedTab(batchPaths[i]));
+                    // Close up the files that could not be read
+                    for(int i = 0; i < count; i++){
+                        if(batch[i] != null){
+                            batch[size++] = batch[i];
+                        }
+                    }
+                    Arrays.fill(batch, size, count, null);
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                tabIterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    paths.close();
+                    saveFeatureCache();
+                });
+    }
+    
+    /**
+     * Saves the feature cache, if one is set
+     */
+    private void saveFeatureCache(){
+        if(featureCache != null){
+            try{
+                featureCache.save();
+            }
+            catch(IOException e){
+                System.out.println("Unable to save feature cache: " + e);
+            }
+        }
+    }
+    
+    /**
+     * Makes a Tab from the feature cache if the file has not changed since it
+     * was cached, otherwise reads the file and caches its features
+     * @param path
+     * @return tab, or null if the file cannot be read
+     */
+    private Tab readCachedTab(String path){
+        if(featureCache == null){
+            return readTab(path);
+        }
+        // Read before the file is, so an edit made while it is being read
+        // is not cached as unchanged
+        BasicFileAttributes attributes;
+        try{
+            attributes = Files.readAttributes(Paths.get(path),
+                    BasicFileAttributes.class);
+        }
+        catch(IOException e){
+            return readTab(path);
+        }
+        TabFeatureVector features = featureCache.get(path, tuning,
+                attributes);
+        if(features != null){
+            TABS_CACHED.increment();
+            Tab tab = new Tab(features, tuning, getGrade(path));
+            tab.setName(path);
+            return tab;
+        }
+        Tab tab = readTab(path);
+        if(tab != null){
+            featureCache.put(path, tuning, attributes,
+                    tab.getFeatureVector());
+        }
+        return tab;
+    }
+    
+    /**
+     * Reads every Tab in an archive of many tabs, as described in
+     * MappedTabReader, and adds them to the database
+     * @param archive
+     * @throws IOException 
+     */
+    public void readInTabArchive(String archive) throws IOException{
+        MappedTabReader.readArchive(Paths.get(archive), tabDatabase::add);
+    }
+    
+    /**
+     * Loads every Tab in a packed TabArchive, which is already parsed, and
+     * adds them to the database
+     * @param archive
+     * @throws IOException 
+     */
+    public void readInPackedArchive(String archive) throws IOException{
+        try(TabArchive tabArchive = TabArchive.open(Paths.get(archive))){
+            for(int i = 0; i < tabArchive.getSize(); i++){
+                tabDatabase.add(tabArchive.getTab(i));
+            }
+        }
+    }
+    
+    /**
+     * Reads and parses a single tab file
+     * @param path
+     * @return tab, or null if the file cannot be read
+     */
+    private Tab readTab(String path){
+        long start = READ_TIMER.start();
+        Tab tab;
+        if(memoryMapped){
+            try{
+                TabEvents.Builder builder = new TabEvents.Builder();
+                BYTES_READ.add(MappedTabReader.readLines(Paths.get(path),
+                        builder::addLine));
+                tab = new Tab(builder.build(), getGrade(path));
+            }
+            catch(IOException e){
+                System.out.println("Unable to read file " + path);
+                return null;
+            }
+        }
+        else{
+            ArrayList<String> lines = tabReader(path);
+            if(lines == null){
+                return null;
+            }
+            // Only the parsed events are kept, not the lines
+            tab = new Tab(TabEvents.parse(lines), getGrade(path));
         }
+        tab.setName(path);
+        tab.setTuning(tuning);
+        tab.getEvents();
+        READ_TIMER.stop(start);
+        TABS_READ.increment();
+        return tab;
     }
     
     /**
      * A method that returns an ArrayList of Strings containing musical 
      * instances
      * @param file
-     * @return 
+     * @return the lines, or null if the file cannot be read
      */
-    private ArrayList<String> tabReader(String file){
+    static ArrayList<String> tabReader(String file){
         String line = null;
         ArrayList<String> instances = new ArrayList<>();
-        System.out.println(file);
         
         try{
-            FileReader fr = new FileReader(file);
-            BufferedReader br = new BufferedReader(fr);
+            FileInputStream in = new FileInputStream(file);
+            BufferedReader br = new BufferedReader(new InputStreamReader(in));
             while((line = br.readLine()) != null){
                 if(!line.isEmpty()){
                     instances.add(line);
                 }
             }
+            // Every byte has been read once the last line has
+            BYTES_READ.add(in.getChannel().position());
             br.close();
         }
         catch(FileNotFoundException e){
             System.out.println("Unable to open " + file);
+            return null;
         }
         catch(IOException e){
             System.out.println("Unable to read file " + file);
+            return null;
         }
         return instances;
     }
@@ -122,25 +414,43 @@ public class TabDatabase {
      */
     private static ArrayList<String> walkDirTree(String rootFolder) throws Exception{
         ArrayList<String> pathList = new ArrayList<>();
-        Files.walk(Paths.get(rootFolder)).forEach(path ->{
-            if(path.toString().contains(".tab")){
-                pathList.add(path.toString());
-            }
-        });
+        try(Stream<Path> paths = Files.walk(Paths.get(rootFolder))){
+            paths.forEach(path ->{
+                if(path.toString().contains(".tab")){
+                    pathList.add(path.toString());
+                }
+            });
+        }
         return pathList;
     }
     
     /**
-     * A method that extracts the grade of a piece from the given file path
+     * A method that extracts the grade of a piece from the given file path,
+     * which is the number of the nearest "gradeN" folder it is in (for
+     * example, "pieces/grade3/13_Larouse.tab" or
+     * "corpus/grade3/shard00012/3_12034.tab")
      * @param path
-     * @return grade of a piece as an int
+     * @return grade of a piece as an int, or 0 if it is not in a grade folder
      */
-    private static int getGrade(String path){
-        int pos = 0;
-        while(path.charAt(pos) != 'g'){
-            pos++;
+    static int getGrade(String path){
+        Path folder = Paths.get(path).getParent();
+        while(folder != null){
+            Path name = folder.getFileName();
+            String segment = name == null ? "" : name.toString();
+            if(segment.length() > 5 && segment.startsWith("grade")){
+                int grade = 0;
+                int pos = 5;
+                while(pos < segment.length()
+                        && Character.isDigit(segment.charAt(pos))){
+                    grade = grade*10 + (segment.charAt(pos)-'0');
+                    pos++;
+                }
+                if(pos == segment.length()){
+                    return grade;
+                }
+            }
+            folder = folder.getParent();
         }
-        pos+=5;
-        return path.charAt(pos)-'0';
+        return 0;
     }
 }
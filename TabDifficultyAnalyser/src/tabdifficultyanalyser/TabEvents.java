@@ -0,0 +1,327 @@
+/*
+ * A class that holds the parsed form of a Tab.
+ * Each line of a Tab is reduced to a kind, and each rhythm event (a line that
+ * starts with a rhythm flag) to a flag code and the course/fret pair of each
+ * note played, all stored in flat primitive arrays. The lines are parsed once
+ * so that features can be found without interpreting characters again.
+ */
+package tabdifficultyanalyser;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class TabEvents {
+    // The kinds of line in a Tab
+    public static final byte EVENT = 0;     // starts with a rhythm flag
+    public static final byte BAR = 1;       // exactly "b"
+    public static final byte BAR_OTHER = 2; // starts with 'b', e.g. "b "
+    public static final byte END = 3;       // exactly "e"
+    public static final byte OTHER = 4;     // comments, headers and the rest
+    // Flag code of an event whose rhythm flag is not counted
+    public static final byte NO_FLAG = -1;
+    // Course recorded for notes beyond the last course that is counted
+    public static final int EXTRA_COURSE = TabFeatureVector.COURSES + 1;
+
+    private final byte[] lineKinds;
+    private final byte[] flags;
+    private final int[] noteStart;
+    private final byte[] notes;
+
+    /**
+     * Constructor for TabEvents, used by the Builder
+     * @param lineKinds the kind of each line
+     * @param flags the rhythm flag code of each event
+     * @param noteStart the position of the first note of each event, with
+     * one extra entry marking the end of the last event
+     * @param notes course/fret pairs for every note of every event
+     */
+    TabEvents(byte[] lineKinds, byte[] flags, int[] noteStart, byte[] notes){
+        this.lineKinds = lineKinds;
+        this.flags = flags;
+        this.noteStart = noteStart;
+        this.notes = notes;
+    }
+
+    /**
+     * Parses the lines of a Tab
+     * @param instances the lines of a Tab
+     * @return the parsed Tab
+     */
+    public static TabEvents parse(List<String> instances){
+        Builder builder = new Builder(instances.size());
+        for(String instance : instances){
+            builder.addLine(instance);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the kind of a line that is not empty
+     * @param line
+     * @return one of EVENT, BAR, BAR_OTHER, END or OTHER
+     */
+    static byte lineKind(CharSequence line){
+        char first = line.charAt(0);
+        if(Tab.isRhythmFlag(line)){
+            return EVENT;
+        }
+        else if(first == 'b'){
+            return line.length() == 1 ? BAR : BAR_OTHER;
+        }
+        else if(first == 'e' && line.length() == 1){
+            return END;
+        }
+        return OTHER;
+    }
+
+    /**
+     * Returns the number of lines
+     * @return lineCount
+     */
+    public int getLineCount(){
+        return lineKinds.length;
+    }
+
+    /**
+     * Returns the kind of a line
+     * @param line the position of the line
+     * @return one of EVENT, BAR, BAR_OTHER, END or OTHER
+     */
+    public byte getLineKind(int line){
+        return lineKinds[line];
+    }
+
+    /**
+     * Returns the number of rhythm events
+     * @return eventCount
+     */
+    public int getEventCount(){
+        return flags.length;
+    }
+
+    /**
+     * Returns the rhythm flag code of an event, which is its position in
+     * rhythmFlagCount, or NO_FLAG
+     * @param event the position of the event
+     * @return flag code
+     */
+    public byte getFlag(int event){
+        return flags[event];
+    }
+
+    /**
+     * Returns the position in the note arrays of the first note of an event
+     * @param event the position of the event
+     * @return note position
+     */
+    public int getNoteStart(int event){
+        return noteStart[event];
+    }
+
+    /**
+     * Returns the position in the note arrays after the last note of an event
+     * @param event the position of the event
+     * @return note position
+     */
+    public int getNoteEnd(int event){
+        return noteStart[event+1];
+    }
+
+    /**
+     * Returns the total number of notes
+     * @return noteCount
+     */
+    public int getNoteCount(){
+        return noteStart[flags.length];
+    }
+
+    /**
+     * Returns the course of a note, starting at 1. Courses beyond the tenth
+     * are all recorded as EXTRA_COURSE.
+     * @param note the position of the note
+     * @return course
+     */
+    public int getCourse(int note){
+        return notes[2*note];
+    }
+
+    /**
+     * Returns the fret of a note, starting at 0 for an open course
+     * @param note the position of the note
+     * @return fret
+     */
+    public int getFret(int note){
+        return notes[2*note+1] & 0xff;
+    }
+
+    /**
+     * Returns the kind of every line, for writing to a TabArchive
+     * @return lineKinds
+     */
+    byte[] lineKindArray(){
+        return lineKinds;
+    }
+
+    /**
+     * Returns the flag code of every event, for writing to a TabArchive
+     * @return flags
+     */
+    byte[] flagArray(){
+        return flags;
+    }
+
+    /**
+     * Returns the note start of every event, for writing to a TabArchive
+     * @return noteStart
+     */
+    int[] noteStartArray(){
+        return noteStart;
+    }
+
+    /**
+     * Returns the course/fret pairs of every note, for writing to a
+     * TabArchive
+     * @return notes
+     */
+    byte[] noteArray(){
+        return notes;
+    }
+
+    /**
+     * A class that parses a Tab one line at a time
+     */
+    public static class Builder {
+        private byte[] lineKinds;
+        private int lineCount;
+        private byte[] flags;
+        private int[] noteStart;
+        private int eventCount;
+        private byte[] notes;
+        private int noteCount;
+        // previousFlag used to check flag for 'x' which indicates grouping
+        private char previousFlag = ' ';
+
+        /**
+         * Default constructor for a Builder
+         */
+        public Builder(){
+            this(64);
+        }
+
+        /**
+         * Constructor for a Builder that expects a number of lines
+         * @param expectedLines
+         */
+        public Builder(int expectedLines){
+            int size = Math.max(expectedLines, 16);
+            lineKinds = new byte[size];
+            flags = new byte[size];
+            noteStart = new int[size+1];
+            notes = new byte[size*4];
+        }
+
+        /**
+         * Parses a line of a Tab. Empty lines are ignored.
+         * @param line
+         */
+        public void addLine(CharSequence line){
+            if(line.length() == 0){
+                return;
+            }
+            if(lineCount == lineKinds.length){
+                lineKinds = Arrays.copyOf(lineKinds, lineCount*2);
+            }
+            byte kind = lineKind(line);
+            lineKinds[lineCount++] = kind;
+            if(kind == EVENT){
+                addEvent(line);
+            }
+        }
+
+        /**
+         * Records the flag and notes of a line starting with a rhythm flag
+         * @param line
+         */
+        private void addEvent(CharSequence line){
+            if(eventCount+1 == noteStart.length){
+                flags = Arrays.copyOf(flags, eventCount*2);
+                noteStart = Arrays.copyOf(noteStart, eventCount*2+1);
+            }
+            flags[eventCount] = (byte)flagCode(line);
+            noteStart[eventCount] = noteCount;
+
+            int course = 1; // course refers to pair of strings
+            for(int j = 1; j < line.length(); j++){
+                char c = line.charAt(j);
+                if(c == ' ' || c == '/'){
+                    course++;
+                }
+                else if(Tab.isValidNote(line, j)){
+                    if(2*noteCount+2 > notes.length){
+                        notes = Arrays.copyOf(notes, notes.length*2);
+                    }
+                    int fret = Math.min(Character.toLowerCase(c) - 'a', 0xff);
+                    notes[2*noteCount] = (byte)Math.min(course, EXTRA_COURSE);
+                    notes[2*noteCount+1] = (byte)fret;
+                    noteCount++;
+                    // Notes beyond the last course do not move to the next
+                    if(course <= TabFeatureVector.COURSES){
+                        course++;
+                    }
+                }
+            }
+            eventCount++;
+            noteStart[eventCount] = noteCount;
+        }
+
+        /**
+         * Finds the flag code of a line starting with a rhythm flag
+         * @param line
+         * @return position in rhythmFlagCount, or NO_FLAG
+         */
+        private int flagCode(CharSequence line){
+            char first = line.charAt(0);
+            if(Character.isDigit(first)){
+                previousFlag = first;
+                return Tab.rhythmFlagIndex(first);
+            }
+            // currently a problem with a few inputs here as previousFlag
+            // is considered as ' ' very occasionally
+            else if(first == 'x'){
+                return Tab.rhythmFlagIndex(previousFlag);
+            }
+            else if(first == '#' && Character.isDigit(line.charAt(1))){
+                previousFlag = line.charAt(1);
+                return Tab.rhythmFlagIndex(previousFlag);
+            }
+            return NO_FLAG;
+        }
+
+        /**
+         * Removes every line parsed so far, keeping the room allocated for
+         * them, so the Builder can parse the next part of a Tab. The last
+         * rhythm flag is kept for an 'x' that follows.
+         */
+        public void clear(){
+            lineCount = 0;
+            eventCount = 0;
+            noteCount = 0;
+            noteStart[0] = 0;
+        }
+
+        /**
+         * Returns the parsed Tab
+         * @return events
+         */
+        public TabEvents build(){
+            return new TabEvents(Arrays.copyOf(lineKinds, lineCount),
+                    Arrays.copyOf(flags, eventCount),
+                    Arrays.copyOf(noteStart, eventCount+1),
+                    Arrays.copyOf(notes, 2*noteCount));
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * A class that holds every feature of a Tab.
+ * All of the features are filled in together in a single pass over the
+ * parsed events of a Tab, rather than each feature scanning the Tab on its own.
+ * The public getters return copies of the counts, so the features cannot be
+ * changed through them; the classes that write the features out read the
+ * arrays themselves, which must not be changed.
+ */
+package tabdifficultyanalyser;
+
+import java.util.List;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class TabFeatureVector {
+    public static final int COURSES = 10;
+    public static final int FRETS = 16;
+
+    // note order; A,A#,B,C,C#,D,D#,E,F,F#,G,G#
+    private final int[] noteCount = new int[12];
+    private final int[][] fretCount = new int[COURSES][FRETS];
+    private final int[] rhythmFlagCount = new int[10];
+    private int[][] advancedFretCount;
+    private int highestFret;
+    private int chordCount;
+    private int totalNoteCount;
+    private int barCount;
+
+    /**
+     * Private constructor, a TabFeatureVector is created through extract()
+     */
+    private TabFeatureVector(){
+    }
+
+    /**
+     * Constructor for a TabFeatureVector whose features are already known,
+     * such as one loaded from a FeatureCache
+     * @param noteCount
+     * @param fretCount
+     * @param advancedFretCount
+     * @param rhythmFlagCount
+     * @param highestFret
+     * @param chordCount
+     * @param totalNoteCount
+     * @param barCount
+     */
+    TabFeatureVector(int[] noteCount, int[][] fretCount,
+            int[][] advancedFretCount, int[] rhythmFlagCount, int highestFret,
+            int chordCount, int totalNoteCount, int barCount){
+        System.arraycopy(noteCount, 0, this.noteCount, 0,
+                this.noteCount.length);
+        for(int i = 0; i < COURSES; i++){
+            System.arraycopy(fretCount[i], 0, this.fretCount[i], 0, FRETS);
+        }
+        this.advancedFretCount = advancedFretCount;
+        System.arraycopy(rhythmFlagCount, 0, this.rhythmFlagCount, 0,
+                this.rhythmFlagCount.length);
+        this.highestFret = highestFret;
+        this.chordCount = chordCount;
+        this.totalNoteCount = totalNoteCount;
+        this.barCount = barCount;
+    }
+
+    /**
+     * Parses the instances of a Tab and records every feature
+     * @param instances the lines of a Tab
+     * @return the features of the Tab
+     */
+    public static TabFeatureVector extract(List<String> instances){
+        return extract(TabEvents.parse(instances));
+    }
+
+    /**
+     * Scans through each event of a parsed Tab once and records every feature,
+     * finding notes with the renaissance tuning
+     * @param events the parsed Tab
+     * @return the features of the Tab
+     */
+    public static TabFeatureVector extract(TabEvents events){
+        return extract(events, Tuning.RENAISSANCE);
+    }
+
+    /**
+     * Scans through each event of a parsed Tab once and records every feature
+     * @param events the parsed Tab
+     * @param tuning the tuning used to find the note of each fret
+     * @return the features of the Tab
+     */
+    public static TabFeatureVector extract(TabEvents events, Tuning tuning){
+        TabFeatureVector v = new TabFeatureVector();
+        BarSegmenter bars = new BarSegmenter();
+        int lines = events.getLineCount();
+        int event = 0;
+
+        for(int i = 0; i < lines; i++){
+            byte kind = events.getLineKind(i);
+
+            if(kind == TabEvents.EVENT){
+                byte flag = events.getFlag(event);
+                if(flag != TabEvents.NO_FLAG){
+                    v.rhythmFlagCount[flag]++;
+                }
+                v.countNotes(events, event, tuning, bars);
+                event++;
+            }
+            else if(kind == TabEvents.BAR || kind == TabEvents.BAR_OTHER){
+                bars.endBar();
+                // A bar line that does not start a new phrase and is not at
+                // the end of the Tab file
+                if(kind == TabEvents.BAR && i < lines-2 &&
+                        events.getLineKind(i+1) != TabEvents.BAR &&
+                        events.getLineKind(i+2) != TabEvents.END){
+                    v.barCount++;
+                }
+            }
+        }
+        v.advancedFretCount = bars.getDensestBar();
+        return v;
+    }
+
+    /**
+     * Records the notes played in a single event
+     * @param events the parsed Tab
+     * @param event the position of the event
+     * @param tuning the tuning used to find the note of each fret
+     * @param bars the segmenter for the bar the event is in
+     */
+    private void countNotes(TabEvents events, int event, Tuning tuning,
+            BarSegmenter bars){
+        int start = events.getNoteStart(event);
+        int end = events.getNoteEnd(event);
+        for(int n = start; n < end; n++){
+            int course = events.getCourse(n);
+            int fret = events.getFret(n);
+            if(fret > highestFret){
+                highestFret = fret;
+            }
+            bars.addNote(course, fret);
+            if(course <= COURSES){
+                noteCount[tuning.getPitchClass(course, fret)]++;
+                fretCount[course-1][fret]++;
+            }
+        }
+        totalNoteCount += end - start;
+        if(end - start >= 3){
+            chordCount++;
+        }
+    }
+
+    /**
+     * Returns the count of each note played, in the order of
+     * Tuning.CHROMATIC_SCALE
+     * @return a copy of noteCount
+     */
+    public int[] getNoteCount(){
+        return noteCount.clone();
+    }
+
+    /**
+     * Returns the array holding the count of each note, which must not be
+     * changed
+     * @return noteCount
+     */
+    int[] noteCountArray(){
+        return noteCount;
+    }
+
+    /**
+     * Returns the highest fret played
+     * @return highestFret
+     */
+    public int getHighestFret(){
+        return highestFret;
+    }
+
+    /**
+     * Returns the count of notes played on each fret of each course
+     * @return a copy of fretCount
+     */
+    public int[][] getFretCount(){
+        return copy(fretCount);
+    }
+
+    /**
+     * Returns the arrays holding the count of each fret of each course,
+     * which must not be changed
+     * @return fretCount
+     */
+    int[][] fretCountArray(){
+        return fretCount;
+    }
+
+    /**
+     * Returns the count of notes played on each fret of each course in the
+     * bar with the most notes
+     * @return a copy of advancedFretCount
+     */
+    public int[][] getAdvancedFretCount(){
+        return copy(advancedFretCount);
+    }
+
+    /**
+     * Returns the arrays holding the count of each fret of each course in
+     * the bar with the most notes, which must not be changed
+     * @return advancedFretCount
+     */
+    int[][] advancedFretCountArray(){
+        return advancedFretCount;
+    }
+
+    /**
+     * Copies a matrix of counts
+     * @param matrix
+     * @return copy
+     */
+    private static int[][] copy(int[][] matrix){
+        int[][] copy = new int[matrix.length][];
+        for(int i = 0; i < matrix.length; i++){
+            copy[i] = matrix[i].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the number of instances that contain 3 or more notes
+     * @return chordCount
+     */
+    public int getChordCount(){
+        return chordCount;
+    }
+
+    /**
+     * Returns the count of each rhythm flag
+     * @return a copy of rhythmFlagCount
+     */
+    public int[] getRhythmFlagCount(){
+        return rhythmFlagCount.clone();
+    }
+
+    /**
+     * Returns the array holding the count of each rhythm flag, which must
+     * not be changed
+     * @return rhythmFlagCount
+     */
+    int[] rhythmFlagCountArray(){
+        return rhythmFlagCount;
+    }
+
+    /**
+     * Returns the number of notes played
+     * @return totalNoteCount
+     */
+    public int getTotalNoteCount(){
+        return totalNoteCount;
+    }
+
+    /**
+     * Returns the number of bars
+     * @return barCount
+     */
+    public int getBarCount(){
+        return barCount;
+    }
+}
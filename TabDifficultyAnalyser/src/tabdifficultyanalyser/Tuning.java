@@ -0,0 +1,130 @@
+/*
+ * A class that represents the tuning of a lute.
+ * The note of every fret on every course is worked out once when the Tuning
+ * is made, so finding the note being played is a single table lookup.
+ */
+package tabdifficultyanalyser;
+
+import java.util.Arrays;
+
+/**
+ *
+ * @author Joshua Foster
+ */
+public class Tuning {
+    public static final String[] CHROMATIC_SCALE = {"a","a#","b","c",
+                                                   "c#","d","d#","e",
+                                                   "f","f#","g","g#"};
+    // Frets are stored as an unsigned byte in TabEvents
+    private static final int FRETS = 256;
+
+    /**
+     * Renaissance lute in G, the tuning the graded pieces are written for
+     */
+    public static final Tuning RENAISSANCE = new Tuning("renaissance",
+            "g", "d", "a", "f", "c", "g", "f", "d#", "d", "c");
+    /**
+     * Vieil ton, the renaissance intervals with the first course in A
+     */
+    public static final Tuning VIEIL_TON = new Tuning("vieilTon",
+            "a", "e", "b", "g", "d", "a", "g", "f", "e", "d");
+    /**
+     * Baroque D minor tuning with diatonic basses
+     */
+    public static final Tuning D_MINOR = new Tuning("dMinor",
+            "f", "d", "a", "f", "d", "a", "g", "f", "e", "d");
+
+    private static final Tuning[] STANDARD = {RENAISSANCE, VIEIL_TON, D_MINOR};
+
+    private final String name;
+    private final String[] openCourses;
+    // The position in CHROMATIC_SCALE of [course-1][fret]
+    private final byte[][] pitchClass;
+
+    /**
+     * Constructor for a Tuning that takes the note of each open course,
+     * starting from the first course
+     * @param name the name of the tuning
+     * @param openCourses the notes of the open courses, as in CHROMATIC_SCALE
+     */
+    public Tuning(String name, String... openCourses){
+        if(openCourses.length != TabFeatureVector.COURSES){
+            throw new IllegalArgumentException("A tuning needs a note for each of "
+                    + TabFeatureVector.COURSES + " courses");
+        }
+        this.name = name;
+        this.openCourses = openCourses.clone();
+        pitchClass = new byte[openCourses.length][FRETS];
+        for(int course = 0; course < openCourses.length; course++){
+            int open = findNote(openCourses[course]);
+            for(int fret = 0; fret < FRETS; fret++){
+                // Modulus 12 (number of notes in the chromatic scale) to give
+                // the note played in the CHROMATIC_SCALE
+                pitchClass[course][fret] = (byte)((open + fret) % 12);
+            }
+        }
+    }
+
+    /**
+     * Returns a Tuning, which is one of the standard tunings if it has the
+     * same name and open courses, so that it can be compared to them by
+     * reference
+     * @param name the name of the tuning
+     * @param openCourses the notes of the open courses, as in CHROMATIC_SCALE
+     * @return tuning
+     */
+    public static Tuning of(String name, String... openCourses){
+        for(Tuning tuning : STANDARD){
+            if(tuning.name.equals(name)
+                    && Arrays.equals(tuning.openCourses, openCourses)){
+                return tuning;
+            }
+        }
+        return new Tuning(name, openCourses);
+    }
+
+    /**
+     * Finds the position of a note in CHROMATIC_SCALE
+     * @param note
+     * @return position
+     */
+    private static int findNote(String note){
+        for(int i = 0; i < CHROMATIC_SCALE.length; i++){
+            if(CHROMATIC_SCALE[i].equalsIgnoreCase(note)){
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown note: " + note);
+    }
+
+    /**
+     * Returns the position in CHROMATIC_SCALE of the note played on a fret
+     * @param course the course (pair of lute strings), starting at 1
+     * @param fret the fret, starting at 0 for an open course
+     * @return note position in CHROMATIC_SCALE
+     */
+    public int getPitchClass(int course, int fret){
+        return pitchClass[course-1][fret];
+    }
+
+    /**
+     * Returns the name of the tuning
+     * @return name
+     */
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * Returns the notes of the open courses, starting from the first course
+     * @return openCourses
+     */
+    public String[] getOpenCourses(){
+        return openCourses.clone();
+    }
+
+    @Override
+    public String toString(){
+        return name + " " + String.join(" ", openCourses);
+    }
+}